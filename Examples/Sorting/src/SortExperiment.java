@@ -83,12 +83,33 @@ public abstract class SortExperiment extends Experiment
 		return true;
 	}
 	
+	@Override
+	public long estimateHeapFootprint(final Parameters input)
+	{
+		// The array, plus the file contents and the strings it is split
+		// into while reading it
+		long size = input.getNumber("size").longValue();
+		return 64 * size;
+	}
+	
 	protected final String getDataFilename(Parameters input)
 	{
 		int size = input.getNumber("size").intValue();
 		return s_dataDir + "list-" + size + ".txt";
 	}
 	
+	@Override
+	protected void warmUp(final Parameters input)
+	{
+		// Sort a fresh copy of the list, so that the JIT compiles the
+		// algorithm before it is timed
+		int[] array = getArray(input);
+		if (array != null)
+		{
+			sort(array);
+		}
+	}
+	
 	@Override
 	public void runExperiment(final Parameters input, Parameters results)
 	{
@@ -0,0 +1,173 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+/**
+ * Decides on the number of threads running experiments, based on the
+ * load of the machine. The number of threads is raised by one when the
+ * load average leaves room for one more busy thread, there is enough
+ * free memory, and experiments are waiting; it is lowered by one when
+ * the load average or the free memory goes past its limit. Since the
+ * load average reacts slowly, a change is made at most once every
+ * {@link #setInterval(long) interval}.
+ * <p>
+ * The load average and the free memory are read from
+ * <tt>/proc/loadavg</tt> and <tt>/proc/meminfo</tt>. On systems without
+ * these files, the number of threads stays as it is.
+ * 
+ * @author Sylvain Hallé
+ */
+public class AdaptiveThreadCount
+{
+	/**
+	 * The minimum number of threads
+	 */
+	protected int m_minThreads;
+	
+	/**
+	 * The maximum number of threads
+	 */
+	protected int m_maxThreads;
+	
+	/**
+	 * The load average not to exceed
+	 */
+	protected float m_maxLoad;
+	
+	/**
+	 * The amount of free memory to keep, in bytes
+	 */
+	protected long m_minFreeMemory = 256 * 1024 * 1024L;
+	
+	/**
+	 * The minimum time between two changes, in ms
+	 */
+	protected long m_interval = 15000;
+	
+	/**
+	 * The last time the number of threads was changed
+	 */
+	protected long m_lastChange = 0;
+	
+	/**
+	 * Creates a new adaptive thread count. By default, the load average
+	 * must not exceed the number of processors.
+	 * @param min_threads The minimum number of threads
+	 * @param max_threads The maximum number of threads
+	 */
+	public AdaptiveThreadCount(int min_threads, int max_threads)
+	{
+		super();
+		m_minThreads = Math.max(1, min_threads);
+		m_maxThreads = Math.max(m_minThreads, max_threads);
+		m_maxLoad = Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * Sets the load average not to exceed
+	 * @param load The load average
+	 * @return This object
+	 */
+	public AdaptiveThreadCount setMaxLoad(float load)
+	{
+		m_maxLoad = load;
+		return this;
+	}
+	
+	/**
+	 * Sets the amount of free memory to keep
+	 * @param bytes The amount of memory, in bytes
+	 * @return This object
+	 */
+	public AdaptiveThreadCount setMinFreeMemory(long bytes)
+	{
+		m_minFreeMemory = bytes;
+		return this;
+	}
+	
+	/**
+	 * Sets the minimum time between two changes of the number of threads
+	 * @param interval The time, in ms
+	 * @return This object
+	 */
+	public AdaptiveThreadCount setInterval(long interval)
+	{
+		m_interval = interval;
+		return this;
+	}
+	
+	/**
+	 * Gets the minimum number of threads
+	 * @return The number of threads
+	 */
+	public int getMinThreads()
+	{
+		return m_minThreads;
+	}
+	
+	/**
+	 * Gets the maximum number of threads
+	 * @return The number of threads
+	 */
+	public int getMaxThreads()
+	{
+		return m_maxThreads;
+	}
+	
+	/**
+	 * Computes the number of threads that should run experiments
+	 * @param current The current number of threads
+	 * @param waiting Whether experiments are waiting to be started
+	 * @return The new number of threads
+	 */
+	public synchronized int getThreadCount(int current, boolean waiting)
+	{
+		long now = System.currentTimeMillis();
+		if (now - m_lastChange < m_interval)
+		{
+			return clamp(current);
+		}
+		float load = OperatingSystem.getLoadAverage();
+		long free = OperatingSystem.getAvailableMemory();
+		int n = current;
+		if ((load >= 0 && load > m_maxLoad) || (free >= 0 && free < m_minFreeMemory))
+		{
+			n = current - 1;
+		}
+		else if (waiting && load >= 0 && load + 1 <= m_maxLoad)
+		{
+			n = current + 1;
+		}
+		n = clamp(n);
+		if (n != current)
+		{
+			m_lastChange = now;
+		}
+		return n;
+	}
+	
+	/**
+	 * Brings a number of threads within the bounds
+	 * @param n The number of threads
+	 * @return The number of threads within the bounds
+	 */
+	protected int clamp(int n)
+	{
+		return Math.max(m_minThreads, Math.min(m_maxThreads, n));
+	}
+}
@@ -0,0 +1,53 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.Collection;
+
+/**
+ * A condition that a queued experiment must fulfill before the
+ * {@link ThreadDispatcher} lets a thread start it. The dispatcher looks
+ * at queued experiments in the order of its {@link SchedulingPolicy}, and
+ * starts the first one that all its rules admit.
+ * 
+ * @author Sylvain Hallé
+ */
+public interface AdmissionRule
+{
+	/**
+	 * The possible decisions of a rule
+	 * <ul>
+	 * <li><tt>ADMIT</tt>: the experiment can start</li>
+	 * <li><tt>SKIP</tt>: the experiment cannot start now, but experiments
+	 *   further in the queue can be considered. An experiment skipped
+	 *   too many times is waited for instead (see
+	 *   {@link ExperimentQueue#setMaxSkips(int)}).</li>
+	 * <li><tt>WAIT</tt>: the experiment cannot start now, and no
+	 *   experiment further in the queue should start before it</li>
+	 * </ul>
+	 */
+	public static enum Decision {ADMIT, SKIP, WAIT};
+	
+	/**
+	 * Decides whether an experiment can start
+	 * @param e The experiment
+	 * @param running The experiments currently running
+	 * @return The decision
+	 */
+	public Decision admit(Experiment e, Collection<Experiment> running);
+}
@@ -18,11 +18,13 @@
 package ca.uqac.lif.parkbench;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ca.uqac.lif.json.JsonElement;
 import ca.uqac.lif.json.JsonList;
@@ -37,10 +39,29 @@ import ca.uqac.lif.parkbench.plot.Plot;
 public class Benchmark
 {
 	/**
-	 * The set of experiments managed by the benchmark
+	 * The set of experiments managed by the benchmark. Experiments can be
+	 * added while others run, so this set is thread-safe.
 	 */
 	protected Set<Experiment> m_tests;
 	
+	/**
+	 * The experiments of the benchmark, indexed by their ID
+	 */
+	protected Map<Integer,Experiment> m_testsById;
+	
+	/**
+	 * The experiments of the benchmark, indexed by their name and
+	 * parameters (see {@link #getKey(Experiment)})
+	 */
+	protected Map<String,Experiment> m_testsByKey;
+	
+	/**
+	 * The IDs of the experiments that are queued by the object that
+	 * added them, such as a {@link Sweep}, rather than by
+	 * {@link #queueAllExperiments()}
+	 */
+	protected Set<Integer> m_produced;
+	
 	/**
 	 * A subset of experiments managed by the benchmark. This set should
 	 * contain one experiment instance per distinct class in the benchmark.
@@ -74,6 +95,12 @@ public class Benchmark
 	 * corresponding to each key. 
 	 */
 	protected Map<Integer,Plot> m_plots;
+	
+	/**
+	 * The cache where results of experiments are kept between runs, or
+	 * null if results are not cached
+	 */
+	protected volatile ResultCache m_cache = null;
 
 	/**
 	 * Create an empty benchmark 
@@ -93,8 +120,11 @@ public class Benchmark
 	public Benchmark(int num_threads)
 	{
 		super();
-		m_tests = new HashSet<Experiment>();
-		m_classInstances = new HashSet<Experiment>();
+		m_tests = Collections.newSetFromMap(new ConcurrentHashMap<Experiment,Boolean>());
+		m_testsById = new ConcurrentHashMap<Integer,Experiment>();
+		m_testsByKey = new ConcurrentHashMap<String,Experiment>();
+		m_produced = Collections.newSetFromMap(new ConcurrentHashMap<Integer,Boolean>());
+		m_classInstances = Collections.newSetFromMap(new ConcurrentHashMap<Experiment,Boolean>());
 		m_name = "Untitled";
 		m_dispatcher = new ThreadDispatcher(num_threads);
 		m_dispatcherThread = new Thread(m_dispatcher);
@@ -121,13 +151,68 @@ public class Benchmark
 	}
 
 	/**
-	 * Add an experiment to the benchmark
+	 * Add an experiment to the benchmark. This can be done while
+	 * experiments are running, e.g. from an {@link ExperimentListener}.
+	 * The parameters of the experiment must not change once it is added.
+	 * Nothing happens if the benchmark already has an experiment with
+	 * the same name and parameters.
+	 * @param t The experiment to add
+	 */
+	public synchronized void addExperiment(Experiment t)
+	{
+		if (m_tests.add(t))
+		{
+			m_testsById.put(t.getId(), t);
+			m_testsByKey.put(getKey(t), t);
+		}
+		addExperimentToClassInstances(t);
+	}
+	
+	/**
+	 * Adds an experiment that the caller, such as a {@link Sweep}, queues
+	 * by itself. {@link #queueAllExperiments()} leaves such experiments
+	 * alone, so that they do not run twice.
 	 * @param t The experiment to add
+	 * @return true if the experiment was added, false if the benchmark
+	 *   already has an experiment with the same name and parameters
 	 */
-	public void addExperiment(Experiment t)
+	public synchronized boolean addProducedExperiment(Experiment t)
 	{
-		m_tests.add(t);
+		if (!m_tests.add(t))
+		{
+			return false;
+		}
+		m_testsById.put(t.getId(), t);
+		m_testsByKey.put(getKey(t), t);
+		m_produced.add(t.getId());
 		addExperimentToClassInstances(t);
+		return true;
+	}
+	
+	/**
+	 * Removes an experiment from the benchmark
+	 * @param t The experiment to remove
+	 */
+	protected synchronized void removeExperiment(Experiment t)
+	{
+		if (m_tests.remove(t))
+		{
+			m_testsById.remove(t.getId());
+			m_testsByKey.remove(getKey(t));
+			m_produced.remove(t.getId());
+		}
+	}
+	
+	/**
+	 * Computes the key of an experiment in {@link #m_testsByKey}. Two
+	 * experiments have the same key exactly when they are equal, i.e. when
+	 * they have the same name and parameters.
+	 * @param t The experiment
+	 * @return The key
+	 */
+	protected static String getKey(Experiment t)
+	{
+		return t.getName() + "\n" + t.getParameters().toCanonicalString();
 	}
 	
 	/**
@@ -181,11 +266,12 @@ public class Benchmark
 
 	/**
 	 * Return the set of all tests in the benchmark
-	 * @return The tests
+	 * @return The tests. This set cannot be modified; use
+	 *   {@link #addExperiment(Experiment)} instead.
 	 */
 	public Set<Experiment> getExperiments()
 	{
-		return m_tests;
+		return Collections.unmodifiableSet(m_tests);
 	}
 
 	/**
@@ -253,38 +339,128 @@ public class Benchmark
 	{
 		return m_dispatcher.threadCount();
 	}
+	
+	/**
+	 * Counts the threads used to generate the prerequisites of experiments
+	 * @return The number of threads
+	 */
+	public int prerequisiteThreadCount()
+	{
+		return m_dispatcher.prerequisiteThreadCount();
+	}
 
 	/**
-	 * Sequentially runs all the experiments in the benchmark
+	 * Sequentially runs all the experiments in the benchmark. An
+	 * experiment runs after the experiments it depends on; it is marked as
+	 * failed if one of them is not done.
 	 */
 	public void runAllExperiments()
 	{
+		Set<Experiment> visited = new HashSet<Experiment>();
 		Iterator<Experiment> it = m_tests.iterator();
 		while (it.hasNext())
 		{
-			Experiment t = it.next();
-			if (t.getStatus() == Experiment.Status.NOT_DONE)
+			runAfterDependencies(it.next(), visited);
+		}
+	}
+	
+	/**
+	 * Sequentially runs an experiment that has not been done, after the
+	 * experiments it depends on
+	 * @param t The experiment
+	 * @param visited The experiments already looked at
+	 */
+	protected void runAfterDependencies(Experiment t, Set<Experiment> visited)
+	{
+		if (!visited.add(t))
+		{
+			return;
+		}
+		for (Experiment dep : t.getDependencies())
+		{
+			runAfterDependencies(dep, visited);
+		}
+		if (t.getStatus() != Experiment.Status.NOT_DONE || fetchFromCache(t))
+		{
+			return;
+		}
+		for (Experiment dep : t.getDependencies())
+		{
+			if (dep.getStatus() != Experiment.Status.DONE)
 			{
-				t.run();
+				t.setFailureMessage("Dependency " + dep.getId() + " did not complete");
+				t.stopWithStatus(Experiment.Status.FAILED);
+				return;
 			}
 		}
+		t.run();
+		storeInCache(t);
 	}
 
 	/**
-	 * Queues all the experiments in the benchmark
+	 * Queues all the experiments in the benchmark, except those that are
+	 * already queued or running, and those added with
+	 * {@link #addProducedExperiment(Experiment)}
 	 */
 	public void queueAllExperiments()
 	{
+		Set<Experiment> visited = new HashSet<Experiment>();
 		Iterator<Experiment> it = m_tests.iterator();
 
 		while (it.hasNext())
 		{
 			Experiment t = it.next();
-			if (t.canRun(t.getParameters()))
+			if (!m_produced.contains(t.getId()) && t.canRun(t.getParameters()))
+			{
+				queueAfterDependencies(t, visited, true, true);
+			}
+		}
+	}
+	
+	/**
+	 * Puts an experiment in the waiting queue, after the experiments it
+	 * depends on that need to be run
+	 * @param t The experiment
+	 * @param visited The experiments already queued
+	 * @param all Set to true to queue all the experiments it depends on;
+	 *   otherwise, only those that have not been run or did not
+	 *   complete are queued
+	 * @param cached Set to true to take the results of experiments from
+	 *   the cache of the benchmark when it has them, instead of queueing
+	 *   them
+	 */
+	protected void queueAfterDependencies(Experiment t, Set<Experiment> visited, boolean all, boolean cached)
+	{
+		if (!visited.add(t) || ThreadDispatcher.isInProgress(t)
+				|| (cached && fetchFromCache(t)))
+		{
+			// Already handled, already in the dispatcher (for example,
+			// queued by a sweep), or taken from the cache
+			return;
+		}
+		for (Experiment dep : t.getDependencies())
+		{
+			Experiment.Status s = dep.getStatus();
+			boolean rerun = all || s == Experiment.Status.NOT_DONE
+					|| s == Experiment.Status.FAILED || s == Experiment.Status.TIMEOUT;
+			if (!rerun)
+			{
+				continue;
+			}
+			if (dep.canRun(dep.getParameters()))
+			{
+				queueAfterDependencies(dep, visited, all, cached);
+			}
+			else if (s != Experiment.Status.DONE)
 			{
-				m_dispatcher.putInQueue(t);
+				// The dependency will never be done: queueing the experiment
+				// would have it wait forever
+				m_dispatcher.cancelDependent(t, dep);
+				m_dispatcher.fireCancelled();
+				return;
 			}
 		}
+		m_dispatcher.putInQueue(t);
 	}
 
 	/**
@@ -300,6 +476,7 @@ public class Benchmark
 			if (t.canRun(t.getParameters()))
 			{
 				t.run();
+				storeInCache(t);
 				return true;
 			}
 		}
@@ -307,18 +484,36 @@ public class Benchmark
 	}
 
 	/**
-	 * Places an experiment in the waiting queue to be executed
+	 * Places an experiment in the waiting queue to be executed. The
+	 * experiments it depends on are queued as well if they have not been
+	 * run, or did not complete. The experiment runs even if its results
+	 * are in the cache of the benchmark.
 	 * @param test_id The id of the experiment to run
 	 * @return true if an experiment with that ID exists, false otherwise
 	 */
 	public boolean queueExperiment(int test_id)
+	{
+		return queueExperiment(test_id, false);
+	}
+	
+	/**
+	 * Places an experiment in the waiting queue to be executed, after the
+	 * experiments it depends on that have not been run or did not
+	 * complete
+	 * @param test_id The id of the experiment to run
+	 * @param cached Set to true to take the results of the experiment and
+	 *   of its dependencies from the cache of the benchmark when it has
+	 *   them, instead of queueing them
+	 * @return true if an experiment with that ID exists, false otherwise
+	 */
+	public boolean queueExperiment(int test_id, boolean cached)
 	{
 		Experiment t = getExperiment(test_id);
 		if (t != null)
 		{
 			if (t.canRun(t.getParameters()))
 			{
-				m_dispatcher.putInQueue(t);
+				queueAfterDependencies(t, new HashSet<Experiment>(), false, cached);
 				return true;
 			}
 		}
@@ -336,15 +531,58 @@ public class Benchmark
 		return m_dispatcher.cancel(exp_id);		
 	}
 
+	/**
+	 * Declares that an object, such as a {@link Sweep}, will still add
+	 * experiments to the benchmark. Until it is removed with
+	 * {@link #removeProducer(Object)}, the benchmark is not considered
+	 * finished, even when no experiment is queued or running.
+	 * @param o The object
+	 */
+	public void addProducer(Object o)
+	{
+		m_dispatcher.addProducer(o);
+	}
+	
+	/**
+	 * Declares that an object will no longer add experiments to the
+	 * benchmark
+	 * @param o The object
+	 */
+	public void removeProducer(Object o)
+	{
+		m_dispatcher.removeProducer(o);
+	}
+
 	/**
 	 * Checks if all the experiments in the benchmark are done
-	 * (either finished or interrupted)
+	 * (either finished or interrupted), and if no sweep will add new
+	 * ones
 	 * @return true if all experiments are finished, false otherwise
 	 */
 	public boolean isFinished()
 	{
 		return m_dispatcher.allDone();
 	}
+	
+	/**
+	 * Waits until all the experiments in the benchmark are done, or until
+	 * some time has elapsed. The method returns as soon as the last
+	 * experiment finishes, rather than at the end of the delay.
+	 * @param timeout The maximum time to wait (in ms); 0 means no limit
+	 * @return true if all experiments are finished, false otherwise
+	 */
+	public boolean waitUntilFinished(long timeout)
+	{
+		try
+		{
+			return m_dispatcher.waitUntilDone(timeout);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return isFinished();
+		}
+	}
 
 	/**
 	 * Sets the dry run status of every experiment in the benchmark.
@@ -362,20 +600,284 @@ public class Benchmark
 	}
 
 	/**
-	 * Sets the number of threads to be used with this benchmark.
-	 * <b>NOTE:</b> this will stop and <b>wipe out</b> the current
-	 * {@link ThreadDispatcher}, leaving dangling any tasks that were running
-	 * in it. It is not recommended to call this method while experiments are
-	 * running.
+	 * Sets the number of threads to be used with this benchmark. This can
+	 * be done while experiments are running: queued experiments stay in
+	 * the queue, and if the number of threads is lowered, running
+	 * experiments are allowed to finish.
 	 * @param num_threads The number of threads this benchmark should use
 	 * @return An instance of this benchmark
 	 */
 	public Benchmark setThreads(int num_threads)
 	{
-		m_dispatcherThread.interrupt();
-		m_dispatcher = new ThreadDispatcher(num_threads);
-		m_dispatcherThread = new Thread(m_dispatcher);
-		m_dispatcherThread.start();
+		return setThreads(num_threads, m_dispatcher.prerequisiteThreadCount());
+	}
+	
+	/**
+	 * Sets the number of threads to be used with this benchmark, including
+	 * the threads dedicated to generating the prerequisites of experiments.
+	 * As with {@link #setThreads(int)}, this can be done while experiments
+	 * are running.
+	 * @param num_threads The number of threads this benchmark should use
+	 *   to run experiments
+	 * @param num_prereq_threads The number of threads this benchmark should
+	 *   use to generate prerequisites
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setThreads(int num_threads, int num_prereq_threads)
+	{
+		m_dispatcher.setThreadCount(num_threads);
+		m_dispatcher.setPrerequisiteThreadCount(num_prereq_threads);
+		return this;
+	}
+	
+	/**
+	 * Enables or disables the adaptive mode, where the number of threads
+	 * running experiments is raised or lowered depending on the load of
+	 * the machine
+	 * @param adaptive The object deciding on the number of threads, or
+	 *   null to keep the current number of threads from now on
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setAdaptiveThreads(AdaptiveThreadCount adaptive)
+	{
+		m_dispatcher.setAdaptive(adaptive);
+		return this;
+	}
+	
+	/**
+	 * Gets the object deciding on the number of threads in adaptive mode
+	 * @return The object, or null if the adaptive mode is disabled
+	 */
+	public AdaptiveThreadCount getAdaptiveThreads()
+	{
+		return m_dispatcher.getAdaptive();
+	}
+
+	/**
+	 * Sets whether the experiments, and the threads reading the output of
+	 * the commands they call, run on virtual threads. This is useful
+	 * for benchmarks made of many {@link CommandExperiment}s that mostly
+	 * wait for an external command: the number of threads can then be
+	 * much larger than the number of commands allowed to run at the same
+	 * time, set with {@link #setMaxProcesses(int)}. Virtual threads
+	 * require Java 21; on older JVMs, regular threads are used. Running
+	 * experiments finish on the threads they were started on.
+	 * <p>
+	 * Note that idle workers wait on the dispatcher's monitor. Up to
+	 * Java 23, a virtual thread waiting on a monitor stays pinned to its
+	 * carrier thread, and the JVM adds carriers to compensate; a benchmark
+	 * with many more workers than experiments ready to run therefore
+	 * still uses one platform thread per idle worker. The same applies to
+	 * experiments that wait on monitors of their own.
+	 * @param b Set to true to use virtual threads
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setVirtualThreads(boolean b)
+	{
+		m_dispatcher.setVirtualThreads(b);
+		CommandRunner.setVirtualThreads(b);
+		return this;
+	}
+	
+	/**
+	 * Sets the maximum number of external commands that can run at the
+	 * same time
+	 * @param max The maximum number of commands; 0 or less means no limit
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setMaxProcesses(int max)
+	{
+		CommandRunner.setMaxProcesses(max);
+		return this;
+	}
+	
+	/**
+	 * Enables or disables the exclusive mode. In this mode, experiments
+	 * declared as timing-sensitive with
+	 * {@link Experiment#setTimingSensitive(boolean)} run alone, while the
+	 * other experiments and the generation of prerequisites use the
+	 * remaining threads.
+	 * @param b Set to true to enable the exclusive mode
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setExclusiveMode(boolean b)
+	{
+		m_dispatcher.setExclusiveMode(b);
+		return this;
+	}
+	
+	/**
+	 * Sets the capacity of a shared resource, such as <tt>memory</tt> or
+	 * <tt>disk</tt>. Experiments using this resource (see
+	 * {@link Experiment#setResource(String, int)}) start only while the
+	 * sum of their weights fits in the capacity; in the meantime, other
+	 * experiments further in the queue can start.
+	 * @param tag The name of the resource
+	 * @param capacity The capacity; 0 or less removes the limit
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setResourceCapacity(String tag, int capacity)
+	{
+		m_dispatcher.setResourceCapacity(tag, capacity);
+		return this;
+	}
+	
+	/**
+	 * Sets the amount of heap that experiments running at the same time
+	 * may use, according to their
+	 * {@link Experiment#estimateHeapFootprint(Parameters)}. By default,
+	 * there is no budget, and experiments are started regardless of
+	 * their footprint.
+	 * @param budget The budget, in bytes; 0 or less removes the budget
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setHeapBudget(long budget)
+	{
+		m_dispatcher.setHeapBudget(budget);
+		return this;
+	}
+	
+	/**
+	 * Sets how many times an experiment can be passed over because of
+	 * its resources or its heap footprint, while experiments queued after
+	 * it start. After that, no other experiment starts until it does. By
+	 * default, this is {@link ExperimentQueue#DEFAULT_MAX_SKIPS}.
+	 * @param n The number of times; 0 or less means no limit
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setMaxSkips(int n)
+	{
+		m_dispatcher.setMaxSkips(n);
+		return this;
+	}
+	
+	/**
+	 * Adds a listener notified when an experiment run by the benchmark's
+	 * threads finishes
+	 * @param l The listener
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark addListener(ExperimentListener l)
+	{
+		m_dispatcher.addListener(l);
+		return this;
+	}
+	
+	/**
+	 * Removes a listener notified when an experiment finishes
+	 * @param l The listener
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark removeListener(ExperimentListener l)
+	{
+		m_dispatcher.removeListener(l);
+		return this;
+	}
+	
+	/**
+	 * Sets the cache where results of experiments are kept between runs.
+	 * By default, there is none. When all experiments are queued or run,
+	 * an experiment that is not done and whose results are in the cache
+	 * is not queued: its results are read from the cache, and the
+	 * listeners of the benchmark are notified as if it had just finished.
+	 * Experiments queued one by one, e.g. from the web interface, always
+	 * run; resetting an experiment removes its results from the cache.
+	 * The results of experiments that are done are written to the cache.
+	 * @param cache The cache, or null to disable caching
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setCache(ResultCache cache)
+	{
+		ResultCache old_cache = m_cache;
+		if (old_cache != null)
+		{
+			m_dispatcher.removeListener(old_cache);
+		}
+		m_cache = cache;
+		if (cache != null)
+		{
+			m_dispatcher.addListener(cache);
+		}
+		return this;
+	}
+	
+	/**
+	 * Gets the cache where results of experiments are kept between runs
+	 * @return The cache, or null if results are not cached
+	 */
+	public ResultCache getCache()
+	{
+		return m_cache;
+	}
+	
+	/**
+	 * Reads the results of an experiment from the cache, if it is not
+	 * done and they are there
+	 * @param t The experiment
+	 * @return true if the results were read, false otherwise
+	 */
+	protected boolean fetchFromCache(Experiment t)
+	{
+		ResultCache cache = m_cache;
+		if (cache == null || t.getStatus() == Experiment.Status.DONE || !cache.fetch(t))
+		{
+			return false;
+		}
+		m_dispatcher.fireFinished(t);
+		return true;
+	}
+	
+	/**
+	 * Writes the results of an experiment run outside of the benchmark's
+	 * threads to the cache
+	 * @param t The experiment
+	 */
+	protected void storeInCache(Experiment t)
+	{
+		ResultCache cache = m_cache;
+		if (cache != null)
+		{
+			cache.store(t);
+		}
+	}
+	
+	/**
+	 * Removes the results of an experiment from the cache, so that they
+	 * are measured again
+	 * @param t The experiment
+	 */
+	protected void removeFromCache(Experiment t)
+	{
+		ResultCache cache = m_cache;
+		if (cache != null)
+		{
+			cache.remove(t);
+		}
+	}
+	
+	/**
+	 * Sets the interval at which metrics of the running experiments
+	 * (heap, memory and CPU used) are recorded as time series. See
+	 * {@link MetricSampler}. By default, no metric is recorded.
+	 * @param interval The interval, in milliseconds; 0 or less disables
+	 *   the sampling
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setSamplingInterval(long interval)
+	{
+		m_dispatcher.setSamplingInterval(interval);
+		return this;
+	}
+	
+	/**
+	 * Sets the policy deciding in what order queued experiments are
+	 * started. By default, the benchmark uses a {@link LongestFirstPolicy}.
+	 * @param policy The policy
+	 * @return An instance of this benchmark
+	 */
+	public Benchmark setSchedulingPolicy(SchedulingPolicy policy)
+	{
+		m_dispatcher.setSchedulingPolicy(policy);
 		return this;
 	}
 
@@ -442,13 +944,11 @@ public class Benchmark
 		{
 			// We don't merge, so all experiments that are not in the input
 			// JSON will be deleted
-			Iterator<Experiment> t_it = m_tests.iterator();
-			while (t_it.hasNext())
+			for (Experiment t : m_tests)
 			{
-				Experiment t = t_it.next();
 				if (!new_tests.contains(t))
 				{
-					t_it.remove();
+					removeExperiment(t);
 				}
 			}
 		}
@@ -462,16 +962,7 @@ public class Benchmark
 	 */
 	protected Experiment getExperiment(int exp_id)
 	{
-		Iterator<Experiment> it = m_tests.iterator();
-		while (it.hasNext())
-		{
-			Experiment t = it.next();
-			if (t.getId() == exp_id)
-			{
-				return t;
-			}
-		}
-		return null;
+		return m_testsById.get(exp_id);
 	}
 
 	/**
@@ -501,6 +992,7 @@ public class Benchmark
 		if (t != null)
 		{
 			t.reset();
+			removeFromCache(t);
 			return true;
 		}
 		return false;
@@ -517,6 +1009,7 @@ public class Benchmark
 		if (t != null)
 		{
 			t.resetState();
+			removeFromCache(t);
 			return true;
 		}
 		return false;
@@ -728,16 +1221,6 @@ public class Benchmark
 	 */
 	protected Experiment getExperimentFromExperiment(Experiment t)
 	{
-		Parameters t_p = t.getParameters();
-		String t_name = t.getName();
-		for (Experiment in_t : m_tests)
-		{
-			if (in_t.getName().compareTo(t_name) == 0 &&
-					in_t.getParameters().equals(t_p))
-			{
-				return in_t;
-			}
-		}
-		return null;
+		return m_testsByKey.get(getKey(t));
 	}
 }
@@ -35,5 +35,7 @@ public class BenchmarkServer extends InnerFileServer
 		registerCallback(0, new GetPlots(b));
 		registerCallback(0, new SaveBenchmark(b));
 		registerCallback(0, new FilterExperiments(b));
+		registerCallback(0, new SetThreads(b));
+		registerCallback(0, new GetRecording(b));
 	}
 }
@@ -73,6 +73,11 @@ public class Cli
 	 * The number of threads used by default
 	 */
 	protected static final int s_defaultNumThreads = 2;
+	
+	/**
+	 * The number of threads used by default to generate prerequisites
+	 */
+	protected static final int s_defaultNumPrereqThreads = 1;
 
 	/**
 	 * Command-line arguments
@@ -99,6 +104,7 @@ public class Cli
 		int server_port = s_defaultPort;
 		boolean interactive_mode = false, text_interactive = false;
 		int num_threads = s_defaultNumThreads;
+		int num_prereq_threads = s_defaultNumPrereqThreads;
 		boolean merge = false;
 
 		final AnsiPrinter stderr = new AnsiPrinter(System.err);
@@ -171,7 +177,79 @@ public class Cli
 		{
 			num_threads = Integer.parseInt(a_map.getOptionValue("threads"));
 		}
-		benchmark.setThreads(num_threads);
+		if (a_map.hasOption("prereq-threads"))
+		{
+			num_prereq_threads = Integer.parseInt(a_map.getOptionValue("prereq-threads"));
+		}
+		if (a_map.hasOption("virtual-threads"))
+		{
+			benchmark.setVirtualThreads(true);
+		}
+		benchmark.setThreads(num_threads, num_prereq_threads);
+		if (a_map.hasOption("adaptive-threads"))
+		{
+			int max_threads = Integer.parseInt(a_map.getOptionValue("adaptive-threads"));
+			benchmark.setAdaptiveThreads(new AdaptiveThreadCount(1, max_threads));
+		}
+		if (a_map.hasOption("max-processes"))
+		{
+			benchmark.setMaxProcesses(Integer.parseInt(a_map.getOptionValue("max-processes")));
+		}
+		if (a_map.hasOption("exclusive"))
+		{
+			benchmark.setExclusiveMode(true);
+		}
+		if (a_map.hasOption("heap-budget"))
+		{
+			long budget = Long.parseLong(a_map.getOptionValue("heap-budget"));
+			benchmark.setHeapBudget(budget * 1024 * 1024);
+		}
+		if (a_map.hasOption("perf"))
+		{
+			PerfStat.setEnabled(true);
+		}
+		if (a_map.hasOption("jfr"))
+		{
+			FlightRecorder.setDefaultProfile(a_map.getOptionValue("jfr"));
+		}
+		if (a_map.hasOption("artefacts"))
+		{
+			FlightRecorder.setDirectory(a_map.getOptionValue("artefacts"));
+		}
+		if (a_map.hasOption("sample-interval"))
+		{
+			benchmark.setSamplingInterval(Long.parseLong(a_map.getOptionValue("sample-interval")));
+		}
+		if (a_map.hasOption("resources"))
+		{
+			// Comma-separated list of tag:capacity
+			for (String spec : a_map.getOptionValue("resources").split(","))
+			{
+				String[] parts = spec.split(":");
+				if (parts.length == 2)
+				{
+					benchmark.setResourceCapacity(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+				}
+			}
+		}
+		if (a_map.hasOption("cache"))
+		{
+			ResultCache cache = new ResultCache(a_map.getOptionValue("cache"));
+			if (a_map.hasOption("fingerprint"))
+			{
+				cache.setFingerprint(a_map.getOptionValue("fingerprint"));
+			}
+			else if (!a_map.hasOption("refresh-cache"))
+			{
+				println(stderr, "Warning: no --fingerprint given; cached results are reused even if the code has changed", 1);
+			}
+			cache.setRefresh(a_map.hasOption("refresh-cache"));
+			benchmark.setCache(cache);
+		}
+		else if (a_map.hasOption("refresh-cache"))
+		{
+			println(stderr, "Warning: --refresh-cache has no effect without --cache", 1);
+		}
 		
 		// Now that the main loop has parsed arguments, send them to the
 		// test suite for further processing
@@ -279,15 +357,8 @@ public class Cli
 						status_map.getNumber("status-failed").intValue(),
 						current_time - start_time);
 				print(stdout, line + "\r", 1000);
-				try
-				{
-					// Wait one second
-					Thread.sleep(1000);
-				}
-				catch (InterruptedException e) 
-				{
-					// Do nothing
-				}
+				// Wait one second, or less if the benchmark finishes before
+				benchmark.waitUntilFinished(1000);
 				loop_count = (loop_count + 1) % s_saveInterval;
 				if (loop_count == 0)
 				{
@@ -354,6 +425,58 @@ public class Cli
 		.withShortName("t")
 		.withArgument("x"));
 		options.addArgument(new CliParser.Argument()
+		.withDescription("Use x threads to generate prerequisites (default: " + s_defaultNumPrereqThreads + ")")
+		.withLongName("prereq-threads")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Adjust the number of threads to the load of the machine, up to x")
+		.withLongName("adaptive-threads")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Run timing-sensitive experiments alone")
+		.withLongName("exclusive"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Let running experiments use at most x MB of heap (0: no limit)")
+		.withLongName("heap-budget")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Limit shared resources, e.g. memory:4,disk:1")
+		.withLongName("resources")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Record metrics of running experiments every x ms")
+		.withLongName("sample-interval")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Count hardware events of commands with perf stat")
+		.withLongName("perf"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Record experiments with the Flight Recorder, using settings x")
+		.withLongName("jfr")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Save recordings in directory x")
+		.withLongName("artefacts")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Reuse results of experiments kept in directory x, e.g. " + ResultCache.DEFAULT_DIRECTORY)
+		.withLongName("cache")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Only reuse cached results obtained with fingerprint x, e.g. a version number")
+		.withLongName("fingerprint")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Run all experiments again, and replace their results in the cache")
+		.withLongName("refresh-cache"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Run experiments on virtual threads (Java 21 or later)")
+		.withLongName("virtual-threads"));
+		options.addArgument(new CliParser.Argument()
+		.withDescription("Run at most x external commands at the same time")
+		.withLongName("max-processes")
+		.withArgument("x"));
+		options.addArgument(new CliParser.Argument()
 		.withDescription("Show version information")
 		.withLongName("version"));
 		return options;
@@ -18,6 +18,7 @@
  */package ca.uqac.lif.parkbench;
 
  import java.util.ArrayList;
+ import java.util.Arrays;
  import java.util.List;
 
  public abstract class CommandExperiment extends Experiment
@@ -25,9 +26,20 @@
 	 public String m_baseFolder;
 
 	 /**
-	  * The time to wait before checking that the command is done
+	  * The runner of the command currently executed, if any
 	  */
-	 protected static long s_waitInterval = 10;
+	 protected volatile CommandRunner m_runner = null;
+
+	 /**
+	  * Whether the command is counted with <tt>perf stat</tt>, or null
+	  * to follow {@link PerfStat#isEnabled()}
+	  */
+	 protected Boolean m_perf = null;
+
+	 /**
+	  * The events counted by <tt>perf stat</tt>
+	  */
+	 protected List<String> m_perfEvents = PerfStat.DEFAULT_EVENTS;
 
 	 public CommandExperiment(String test_name)
 	 {
@@ -48,34 +60,101 @@
 		 createCommand(params, command_list);
 		 String command[] = new String[command_list.size()];
 		 command = command_list.toArray(command);
+		 boolean perf = (m_perf == null ? PerfStat.isEnabled() : m_perf) && PerfStat.isAvailable();
+		 if (perf)
+		 {
+			 command = PerfStat.wrap(command, m_perfEvents);
+		 }
 		 if (getDryRun() == true)
 		 {
 			 System.out.println("Dry run: would execute " + command_list);
 			 return;
 		 }
+		 // Run the command in this thread, which blocks until it is done
 		 CommandRunner runner = new CommandRunner(command);
-		 runner.start();
-		 // Wait until the command is done
-		 while (runner.isAlive())
+		 m_runner = runner;
+		 try
 		 {
-			 // Wait 0.1 s and check again
-			 try
-			 {
-				 Thread.sleep(s_waitInterval);
-			 }
-			 catch (InterruptedException e) 
-			 {
-				 // This happens if the user cancels the command manually
-				 runner.stopCommand();
-				 runner.interrupt();
-				 stopWithStatus(Status.FAILED);
-				 return;
-			 }
+			 runner.run();
+		 }
+		 finally
+		 {
+			 m_runner = null;
+		 }
+		 if (Thread.currentThread().isInterrupted())
+		 {
+			 // This happens if the user cancels the command manually
+			 stopWithStatus(Status.FAILED);
+			 return;
+		 }
+		 if (perf && !PerfStat.readCounters(runner.getErrorString(), m_perfEvents, results))
+		 {
+			 // perf stat could not open its counters, and did not run the
+			 // command: its output is not a result
+			 setFailureMessage("perf stat failed: " + runner.getErrorString().trim());
+			 stopWithStatus(Status.FAILED);
+			 return;
 		 }
 		 String output = runner.getString();
 		 readOutput(output, results);
 	 }
 
+	 /**
+	  * Sets whether the command is counted with <tt>perf stat</tt>. If so,
+	  * and if <tt>perf</tt> is installed, the counters become results of
+	  * the experiment (see {@link PerfStat}).
+	  * @param b Set to true to count the command
+	  * @return This experiment
+	  */
+	 public CommandExperiment setPerfCounters(boolean b)
+	 {
+		 m_perf = b;
+		 return this;
+	 }
+
+	 /**
+	  * Sets the events counted by <tt>perf stat</tt>, and counts the
+	  * command
+	  * @param events The names of the events, as given to
+	  *   <tt>perf stat -e</tt>
+	  * @return This experiment
+	  */
+	 public CommandExperiment setPerfEvents(String ... events)
+	 {
+		 m_perfEvents = Arrays.asList(events);
+		 m_perf = true;
+		 return this;
+	 }
+
+	 /**
+	  * Kills the command currently executed, and the processes it has
+	  * started
+	  */
+	 @Override
+	 public void kill()
+	 {
+		 super.kill();
+		 CommandRunner runner = m_runner;
+		 if (runner != null)
+		 {
+			 runner.kill();
+		 }
+	 }
+
+	 /**
+	  * Gets the ID of the process running the command, if any
+	  */
+	 @Override
+	 public long getProcessId()
+	 {
+		 CommandRunner runner = m_runner;
+		 if (runner != null)
+		 {
+			 return runner.getPid();
+		 }
+		 return -1;
+	 }
+
 	 /**
 	  * Creates the command to execute based on the test's parameters
 	  * @param parameters The test's parameters
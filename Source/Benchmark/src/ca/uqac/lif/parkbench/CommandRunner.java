@@ -21,11 +21,31 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Semaphore;
 
 public class CommandRunner extends Thread
 {
+	/**
+	 * Whether the threads reading the output of commands are virtual
+	 * threads
+	 * @see VirtualThreads
+	 */
+	protected static volatile boolean s_virtualThreads = false;
+	
+	/**
+	 * Bounds the number of commands running at the same time, or null
+	 * if there is no limit
+	 */
+	protected static volatile Semaphore s_processPermits = null;
+	
+	/**
+	 * The number of permits of {@link #s_processPermits}
+	 */
+	protected static int s_maxProcesses = 0;
+	
 	protected String[] m_command;
 	
 	protected String m_stdin;
@@ -37,6 +57,11 @@ public class CommandRunner extends Thread
 	protected StreamGobbler m_stderrGobbler;
 	
 	protected int m_errorCode = 0;
+	
+	/**
+	 * The process running the command, or null if not running
+	 */
+	protected volatile Process m_process = null;
 
 	/**
 	 * Creates a CommandRunner to run a command.
@@ -82,7 +107,7 @@ public class CommandRunner extends Thread
 	 * Constantly reads an input stream and captures its content.
 	 * Inspired from <a href="http://stackoverflow.com/questions/14165517/processbuilder-forwarding-stdout-and-stderr-of-started-processes-without-blocki">Stack Overflow</a>
 	 */
-	protected class StreamGobbler extends Thread
+	protected class StreamGobbler implements Runnable
 	{
 		InputStream m_is;
 		Vector<Byte> m_contents;
@@ -187,6 +212,45 @@ public class CommandRunner extends Thread
 		return f.delete();
 	}
 	
+	/**
+	 * Sets whether the threads reading the output of commands are virtual
+	 * threads. This has no effect if the JVM does not support them.
+	 * @param b Set to true to use virtual threads
+	 */
+	public static void setVirtualThreads(boolean b)
+	{
+		s_virtualThreads = b;
+	}
+	
+	/**
+	 * Sets the maximum number of commands that can run at the same time,
+	 * independently of the number of threads waiting for them. A runner
+	 * waits for one of the running commands to end before starting its
+	 * own. This only applies to runners that start after the call.
+	 * @param max The maximum number of commands; 0 or less means no limit
+	 */
+	public static synchronized void setMaxProcesses(int max)
+	{
+		s_maxProcesses = max;
+		if (max > 0)
+		{
+			s_processPermits = new Semaphore(max, true);
+		}
+		else
+		{
+			s_processPermits = null;
+		}
+	}
+	
+	/**
+	 * Gets the maximum number of commands that can run at the same time
+	 * @return The maximum number of commands; 0 means no limit
+	 */
+	public static synchronized int getMaxProcesses()
+	{
+		return s_maxProcesses;
+	}
+	
 	public static byte[] runAndGet(String[] command, String inputs)
 	{
 		CommandRunner runner = new CommandRunner(command, inputs);
@@ -218,16 +282,40 @@ public class CommandRunner extends Thread
 		return runAndGet(s_command, inputs);
 	}
 
+	/**
+	 * Runs the command and waits until it is over. This method can be
+	 * called directly, in which case the command runs in the calling
+	 * thread. If that thread is interrupted, the command is destroyed and
+	 * the thread's interrupted status is set again on return.
+	 */
 	@Override
 	public void run()
 	{
+		Semaphore permits = s_processPermits;
+		if (permits != null)
+		{
+			try
+			{
+				permits.acquire();
+			}
+			catch (InterruptedException e)
+			{
+				// Cancelled before the command could even start
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
 		ProcessBuilder builder = new ProcessBuilder(m_command);
 		Process process = null;
 		try 
 		{
 			process = builder.start();
+			m_process = process;
 			m_stderrGobbler = new StreamGobbler(process.getErrorStream(), "ERR");
 			m_stdoutGobbler = new StreamGobbler(process.getInputStream(), "IN");
+			String name = "ParkBench command " + getName();
+			Thread stderr_thread = VirtualThreads.newThread(m_stderrGobbler, name + " stderr", s_virtualThreads);
+			Thread stdout_thread = VirtualThreads.newThread(m_stdoutGobbler, name + " stdout", s_virtualThreads);
 			// Send data into stdin of process
 			if (m_stdin != null)
 			{
@@ -239,13 +327,15 @@ public class CommandRunner extends Thread
 				//System.out.println("Writing " + stdin_bytes.length + " bytes");
 			}
 			// Start gobblers
-			m_stderrGobbler.start();
-			m_stdoutGobbler.start();
+			stderr_thread.start();
+			stdout_thread.start();
+			// Wait for both gobblers to reach the end of their stream first:
+			// waitFor() blocks inside a monitor, which would pin the carrier
+			// of a virtual thread, while it returns at once for a process
+			// that has closed its output
+			stderr_thread.join();
+			stdout_thread.join();
 			m_errorCode = process.waitFor();
-			do
-			{
-				// Wait for both gobblers to finish
-			} while (!m_stop && (m_stderrGobbler.isAlive() || m_stdoutGobbler.isAlive()));
 		} 
 		catch (IOException e)
 		{
@@ -256,7 +346,16 @@ public class CommandRunner extends Thread
 			// Destroy the running command
 			if (process != null)
 			{
-				process.destroy();
+				destroyTree(process);
+			}
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			m_process = null;
+			if (permits != null)
+			{
+				permits.release();
 			}
 		}
 		//System.err.println(new String(error_gobbler.getBytes()));
@@ -268,6 +367,10 @@ public class CommandRunner extends Thread
 	 */
 	synchronized public byte[] getBytes()
 	{
+		if (m_stdoutGobbler == null)
+		{
+			return new byte[0];
+		}
 		return m_stdoutGobbler.getBytes();
 	}
 	
@@ -289,9 +392,106 @@ public class CommandRunner extends Thread
 		return new String(out);
 	}
 	
+	/**
+	 * Gets the exit code of the command
+	 * @return The exit code, or 0 if the command did not run
+	 */
+	public int getErrorCode()
+	{
+		return m_errorCode;
+	}
+	
+	/**
+	 * Gets the contents of stderr sent by the command as a string
+	 * @return The contents of stderr
+	 */
+	synchronized public String getErrorString()
+	{
+		if (m_stderrGobbler == null)
+		{
+			return "";
+		}
+		byte[] out = m_stderrGobbler.getBytes();
+		if (out == null || out.length == 0)
+		{
+			return "";
+		}
+		return new String(out);
+	}
+	
 	synchronized public void stopCommand()
 	{
 		m_stop = true;
 	}
+	
+	/**
+	 * Forcibly kills the command, if it is running, along with all the
+	 * processes it has started
+	 */
+	public void kill()
+	{
+		Process process = m_process;
+		if (process != null)
+		{
+			destroyTree(process);
+		}
+	}
+	
+	/**
+	 * Gets the ID of the process running the command. This requires
+	 * Java 9.
+	 * @return The ID, or -1 if the command is not running or the JVM
+	 *   cannot tell
+	 */
+	public long getPid()
+	{
+		Process process = m_process;
+		if (process == null)
+		{
+			return -1;
+		}
+		try
+		{
+			return ((Long) Process.class.getMethod("pid").invoke(process)).longValue();
+		}
+		catch (Exception e)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Forcibly kills a process and all its descendants. Listing the
+	 * descendants of a process requires Java 9; on older JVMs, only the
+	 * process itself is killed.
+	 * @param process The process
+	 */
+	protected static void destroyTree(Process process)
+	{
+		try
+		{
+			// Take a snapshot of the descendants before killing anything,
+			// as orphans are no longer listed
+			Object stream = Process.class.getMethod("descendants").invoke(process);
+			Object[] handles = (Object[]) Class.forName("java.util.stream.Stream").getMethod("toArray").invoke(stream);
+			Method destroy = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly");
+			for (Object handle : handles)
+			{
+				destroy.invoke(handle);
+			}
+		}
+		catch (Exception e)
+		{
+			// Not supported by this JVM
+		}
+		try
+		{
+			Process.class.getMethod("destroyForcibly").invoke(process);
+		}
+		catch (Exception e)
+		{
+			process.destroy();
+		}
+	}
 
 }
@@ -0,0 +1,474 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tells which parameters of a set of experiments matter for one of their
+ * results. The experiments that are done are grouped by the value of each
+ * parameter, and by the values of each pair of parameters; the summary
+ * gives:
+ * <ul>
+ * <li>the <em>main effect</em> of a parameter: how much the mean of the
+ *   result differs between its lowest and its highest value;</li>
+ * <li>the <em>contribution</em> of a parameter: the fraction of the
+ *   variance of the result that is explained by its value alone;</li>
+ * <li>the <em>interaction</em> of two parameters: the fraction of the
+ *   variance explained by their values together, beyond what each one
+ *   explains alone.</li>
+ * </ul>
+ * Contributions and interactions are reduced by the part of the variance
+ * that groups with few experiments would explain by chance, so that
+ * parameters that do not matter get a figure close to 0.
+ * These figures are exact for full and two-level fractional factorial
+ * designs. With other designs, such as a {@link LatinHypercubeDesign},
+ * numerical parameters can take a different value in almost every
+ * experiment; their values are then grouped into {@link #MAX_LEVELS}
+ * ranges of about the same number of experiments, and the figures are
+ * estimates. For example, after a {@link Sweep} has run:
+ * <pre>
+ * System.out.println(new EffectsSummary(b.getExperiments(), "time", "size", "order"));
+ * </pre>
+ * 
+ * @author Sylvain Hallé
+ */
+public class EffectsSummary
+{
+	/**
+	 * The maximum number of distinct values of a numerical parameter
+	 * before its values are grouped into ranges
+	 */
+	public static final int MAX_LEVELS = 4;
+	
+	/**
+	 * The name of the result
+	 */
+	protected final String m_result;
+	
+	/**
+	 * The names of the parameters
+	 */
+	protected final List<String> m_parameters;
+	
+	/**
+	 * The parameters of each experiment taken into account
+	 */
+	protected final List<Parameters> m_points = new ArrayList<Parameters>();
+	
+	/**
+	 * The result of each experiment taken into account
+	 */
+	protected final List<Double> m_values = new ArrayList<Double>();
+	
+	/**
+	 * For the numerical parameters whose values are grouped into ranges,
+	 * the lower bound of each range but the first
+	 */
+	protected final Map<String,double[]> m_bounds = new HashMap<String,double[]>();
+	
+	/**
+	 * The result of each experiment, minus the main effects of all the
+	 * parameters
+	 */
+	protected final List<Double> m_residuals = new ArrayList<Double>();
+	
+	/**
+	 * The mean of the result
+	 */
+	protected double m_mean = 0;
+	
+	/**
+	 * The sum of the squared deviations of the result from its mean
+	 */
+	protected double m_totalSquares = 0;
+	
+	/**
+	 * Computes the summary of a set of experiments
+	 * @param experiments The experiments. Only those that are done and
+	 *   have the result are taken into account.
+	 * @param result The name of the result
+	 * @param parameters The names of the parameters
+	 */
+	public EffectsSummary(Collection<Experiment> experiments, String result, String ... parameters)
+	{
+		this(experiments, result, Arrays.asList(parameters));
+	}
+	
+	/**
+	 * Computes the summary of a set of experiments
+	 * @param experiments The experiments. Only those that are done and
+	 *   have the result are taken into account.
+	 * @param result The name of the result
+	 * @param parameters The names of the parameters
+	 */
+	public EffectsSummary(Collection<Experiment> experiments, String result, Collection<String> parameters)
+	{
+		super();
+		m_result = result;
+		m_parameters = new ArrayList<String>(parameters);
+		for (Experiment e : experiments)
+		{
+			if (e.getStatus() != Experiment.Status.DONE)
+			{
+				continue;
+			}
+			Number value = e.getResults().getNumber(result);
+			if (value == null)
+			{
+				continue;
+			}
+			m_points.add(e.getParameters());
+			m_values.add(value.doubleValue());
+			m_mean += value.doubleValue();
+		}
+		if (!m_values.isEmpty())
+		{
+			m_mean /= m_values.size();
+		}
+		for (double v : m_values)
+		{
+			m_totalSquares += (v - m_mean) * (v - m_mean);
+		}
+		for (String p : m_parameters)
+		{
+			computeBounds(p);
+		}
+		// Interactions are looked for in what the main effects do not
+		// explain
+		m_residuals.addAll(m_values);
+		for (String p : m_parameters)
+		{
+			Map<Object,double[]> groups = group(m_values, p);
+			for (int i = 0; i < m_residuals.size(); i++)
+			{
+				double[] sum_count = groups.get(getLevel(p, m_points.get(i)));
+				m_residuals.set(i, m_residuals.get(i) - (sum_count[0] / sum_count[1] - m_mean));
+			}
+		}
+	}
+	
+	/**
+	 * Decides whether the values of a parameter are grouped into ranges,
+	 * and computes the bounds of these ranges
+	 * @param parameter The name of the parameter
+	 */
+	protected void computeBounds(String parameter)
+	{
+		double[] values = new double[m_points.size()];
+		Set<Double> distinct = new HashSet<Double>();
+		for (int i = 0; i < values.length; i++)
+		{
+			Object o = m_points.get(i).get(parameter);
+			if (!(o instanceof Number))
+			{
+				return;
+			}
+			values[i] = ((Number) o).doubleValue();
+			distinct.add(values[i]);
+		}
+		if (distinct.size() <= MAX_LEVELS)
+		{
+			return;
+		}
+		Arrays.sort(values);
+		double[] bounds = new double[MAX_LEVELS - 1];
+		for (int i = 0; i < bounds.length; i++)
+		{
+			bounds[i] = values[(i + 1) * values.length / MAX_LEVELS];
+		}
+		m_bounds.put(parameter, bounds);
+	}
+	
+	/**
+	 * Gets the level of a parameter in an experiment
+	 * @param parameter The name of the parameter
+	 * @param params The parameters of the experiment
+	 * @return The value of the parameter or, if its values are grouped
+	 *   into ranges, the index of the range of that value
+	 */
+	protected Object getLevel(String parameter, Parameters params)
+	{
+		Object o = params.get(parameter);
+		double[] bounds = m_bounds.get(parameter);
+		if (bounds == null)
+		{
+			return o;
+		}
+		double value = ((Number) o).doubleValue();
+		int level = 0;
+		while (level < bounds.length && value >= bounds[level])
+		{
+			level++;
+		}
+		return level;
+	}
+	
+	/**
+	 * Gets the number of experiments taken into account
+	 * @return The number of experiments
+	 */
+	public int getCount()
+	{
+		return m_values.size();
+	}
+	
+	/**
+	 * Gets the mean of the result for each level of a parameter
+	 * @param parameter The name of the parameter
+	 * @return A map from each level of the parameter to the mean of the
+	 *   result for that level. The level is the value of the parameter or,
+	 *   if its values are grouped into ranges, the index of the range.
+	 */
+	public Map<Object,Double> getLevelMeans(String parameter)
+	{
+		Map<Object,Double> out = new HashMap<Object,Double>();
+		for (Map.Entry<Object,double[]> entry : group(m_values, parameter).entrySet())
+		{
+			double[] sum_count = entry.getValue();
+			out.put(entry.getKey(), sum_count[0] / sum_count[1]);
+		}
+		return out;
+	}
+	
+	/**
+	 * Gets the main effect of a parameter. For a numerical parameter, this
+	 * is the mean of the result at its highest level, minus the mean at
+	 * its lowest level; otherwise, this is the difference between the
+	 * highest and the lowest mean over all its levels.
+	 * @param parameter The name of the parameter
+	 * @return The effect, in the unit of the result
+	 */
+	public double getMainEffect(String parameter)
+	{
+		Map<Object,Double> means = getLevelMeans(parameter);
+		if (means.isEmpty())
+		{
+			return 0;
+		}
+		Number lowest = null, highest = null;
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		boolean numerical = true;
+		for (Map.Entry<Object,Double> entry : means.entrySet())
+		{
+			min = Math.min(min, entry.getValue());
+			max = Math.max(max, entry.getValue());
+			if (!(entry.getKey() instanceof Number))
+			{
+				numerical = false;
+				continue;
+			}
+			Number n = (Number) entry.getKey();
+			if (lowest == null || n.doubleValue() < lowest.doubleValue())
+			{
+				lowest = n;
+			}
+			if (highest == null || n.doubleValue() > highest.doubleValue())
+			{
+				highest = n;
+			}
+		}
+		if (numerical)
+		{
+			return means.get(highest) - means.get(lowest);
+		}
+		return max - min;
+	}
+	
+	/**
+	 * Gets the fraction of the variance of the result explained by the
+	 * level of a parameter, minus the part that could be due to chance
+	 * @param parameter The name of the parameter
+	 * @return A number between 0 and 1
+	 */
+	public double getContribution(String parameter)
+	{
+		Map<Object,double[]> groups = group(m_values, parameter);
+		double squares = getSquares(groups, m_mean);
+		return adjust(squares, groups.size() - 1, m_totalSquares - squares, getCount() - groups.size());
+	}
+	
+	/**
+	 * Gets the fraction of the variance of the result explained by the
+	 * levels of two parameters together, beyond what each one explains
+	 * alone and the part that could be due to chance
+	 * @param first The name of the first parameter
+	 * @param second The name of the second parameter
+	 * @return A number between 0 and 1
+	 */
+	public double getInteraction(String first, String second)
+	{
+		double mean = 0;
+		for (double r : m_residuals)
+		{
+			mean += r;
+		}
+		mean /= Math.max(1, getCount());
+		double total = 0;
+		for (double r : m_residuals)
+		{
+			total += (r - mean) * (r - mean);
+		}
+		Map<Object,double[]> cells = group(m_residuals, first, second);
+		double squares = getSquares(cells, mean);
+		int df = cells.size() - group(m_residuals, first).size() - group(m_residuals, second).size() + 1;
+		return adjust(squares, df, total - squares, getCount() - cells.size());
+	}
+	
+	/**
+	 * Turns a sum of squares into a fraction of the variance of the
+	 * result. With few experiments per group, groups explain part of the
+	 * variance by chance alone; that part is estimated from the variance
+	 * left within the groups, and subtracted.
+	 * @param squares The sum of squares explained by an effect
+	 * @param df The number of degrees of freedom of the effect
+	 * @param within The sum of squares left within the groups from which
+	 *   the effect is computed
+	 * @param error_df The number of degrees of freedom left within these
+	 *   groups
+	 * @return A number between 0 and 1
+	 */
+	protected double adjust(double squares, int df, double within, int error_df)
+	{
+		if (m_totalSquares == 0 || df <= 0)
+		{
+			return 0;
+		}
+		if (error_df <= 0)
+		{
+			// One experiment per group: cannot tell an effect from chance
+			return 0;
+		}
+		double error = Math.max(0, within) / error_df;
+		return Math.max(0, (squares - df * error) / (m_totalSquares + error));
+	}
+	
+	/**
+	 * Groups values by the levels of some parameters
+	 * @param values The value for each experiment
+	 * @param parameters The names of the parameters
+	 * @return A map from the levels of the parameters to the sum and the
+	 *   number of values with these levels
+	 */
+	protected Map<Object,double[]> group(List<Double> values, String ... parameters)
+	{
+		Map<Object,double[]> groups = new HashMap<Object,double[]>();
+		for (int i = 0; i < m_points.size(); i++)
+		{
+			Parameters params = m_points.get(i);
+			Object key;
+			if (parameters.length == 1)
+			{
+				key = getLevel(parameters[0], params);
+			}
+			else
+			{
+				List<Object> levels = new ArrayList<Object>(parameters.length);
+				for (String name : parameters)
+				{
+					levels.add(getLevel(name, params));
+				}
+				key = levels;
+			}
+			double[] sum_count = groups.get(key);
+			if (sum_count == null)
+			{
+				sum_count = new double[2];
+				groups.put(key, sum_count);
+			}
+			sum_count[0] += values.get(i);
+			sum_count[1]++;
+		}
+		return groups;
+	}
+	
+	/**
+	 * Computes the sum of squared deviations between the means of groups
+	 * and the overall mean, each weighted by the size of the group
+	 * @param groups The groups, as returned by {@link #group(List, String...)}
+	 * @param mean The overall mean
+	 * @return The sum
+	 */
+	protected double getSquares(Map<Object,double[]> groups, double mean)
+	{
+		double out = 0;
+		for (double[] sum_count : groups.values())
+		{
+			double diff = sum_count[0] / sum_count[1] - mean;
+			out += sum_count[1] * diff * diff;
+		}
+		return out;
+	}
+	
+	/**
+	 * Produces a table of the main effects of the parameters, and of the
+	 * interactions of each pair of parameters, from the ones that matter
+	 * most to the ones that matter least
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder out = new StringBuilder();
+		out.append("Effects on ").append(m_result).append(" (").append(getCount()).append(" experiments)\n");
+		out.append(String.format("%-30s %12s %12s%n", "Parameter", "Effect", "Variance"));
+		List<String> parameters = new ArrayList<String>(m_parameters);
+		final Map<String,Double> contributions = new HashMap<String,Double>();
+		for (String p : parameters)
+		{
+			contributions.put(p, getContribution(p));
+		}
+		Comparator<String> by_contribution = new Comparator<String>()
+		{
+			@Override
+			public int compare(String s1, String s2)
+			{
+				return Double.compare(contributions.get(s2), contributions.get(s1));
+			}
+		};
+		Collections.sort(parameters, by_contribution);
+		for (String p : parameters)
+		{
+			out.append(String.format("%-30s %12.4g %11.1f%%%n", p, getMainEffect(p), 100 * contributions.get(p)));
+		}
+		List<String> pairs = new ArrayList<String>();
+		for (int i = 0; i < m_parameters.size(); i++)
+		{
+			for (int j = i + 1; j < m_parameters.size(); j++)
+			{
+				String pair = m_parameters.get(i) + " x " + m_parameters.get(j);
+				contributions.put(pair, getInteraction(m_parameters.get(i), m_parameters.get(j)));
+				pairs.add(pair);
+			}
+		}
+		Collections.sort(pairs, by_contribution);
+		for (String pair : pairs)
+		{
+			out.append(String.format("%-30s %12s %11.1f%%%n", pair, "", 100 * contributions.get(pair)));
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,54 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.Collection;
+
+/**
+ * Admission rule making sure that timing-sensitive experiments never
+ * share the CPU with another experiment. An experiment marked with
+ * {@link Experiment#setTimingSensitive(boolean)} only starts when no
+ * other experiment is running, and nothing else starts while it runs.
+ * When such an experiment is next in line, the dispatcher stops starting
+ * other experiments, so that it does not wait forever.
+ * <p>
+ * This only concerns the threads that run experiments; the generation of
+ * prerequisites continues in parallel.
+ * 
+ * @author Sylvain Hallé
+ */
+public class ExclusiveRule implements AdmissionRule
+{
+	@Override
+	public Decision admit(Experiment e, Collection<Experiment> running)
+	{
+		if (e.isTimingSensitive())
+		{
+			// Can run only alone; meanwhile, don't start anything else
+			return running.isEmpty() ? Decision.ADMIT : Decision.WAIT;
+		}
+		for (Experiment r : running)
+		{
+			if (r.isTimingSensitive())
+			{
+				return Decision.WAIT;
+			}
+		}
+		return Decision.ADMIT;
+	}
+}
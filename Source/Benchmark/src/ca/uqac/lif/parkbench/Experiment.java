@@ -17,12 +17,27 @@
  */
 package ca.uqac.lif.parkbench;
 
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.io.File;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import ca.uqac.lif.json.JsonElement;
+import ca.uqac.lif.json.JsonList;
 import ca.uqac.lif.json.JsonMap;
 import ca.uqac.lif.json.JsonNumber;
+import ca.uqac.lif.json.JsonParser;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
 import ca.uqac.lif.json.JsonString;
 
 /**
@@ -49,6 +64,19 @@ public abstract class Experiment implements Runnable
 	public static enum Status {DONE, FAILED, RUNNING, NOT_DONE,
 		QUEUED, PREREQUISITES, TIMEOUT};
 	
+	/**
+	 * The phases in the lifecycle of an experiment:
+	 * <ul>
+	 * <li><tt>QUEUE</tt>: waiting in the queues of the dispatcher</li>
+	 * <li><tt>PREREQUISITES</tt>: generating the prerequisites</li>
+	 * <li><tt>RUN</tt>: running the experiment, including its warm-up
+	 *   and all its repetitions</li>
+	 * <li><tt>CLEANUP</tt>: cleaning the prerequisites when the
+	 *   experiment is reset</li>
+	 * </ul>
+	 */
+	public static enum Phase {QUEUE, PREREQUISITES, RUN, CLEANUP};
+	
 	/**
 	 * Determines if the experiment is to be executed for real, or
 	 * just printed for debugging purposes.
@@ -75,7 +103,7 @@ public abstract class Experiment implements Runnable
 	/**
 	 * Checks whether the test is done
 	 */
-	private Status m_status;
+	private volatile Status m_status;
 	
 	/**
 	 * Name for this family of tests
@@ -88,11 +116,57 @@ public abstract class Experiment implements Runnable
 	private String m_failureMessage;
 	
 	/**
-	 * A number of seconds after which the benchmark is allowed to
+	 * A number of nanoseconds after which the benchmark is allowed to
 	 * interrupt this test. A value of 0 indicates the test should not
 	 * be interrupted.
 	 */
-	private long m_killAfter;
+	private volatile long m_killAfter;
+	
+	/**
+	 * The value of <tt>System.nanoTime()</tt> when the test last started
+	 * running
+	 */
+	private volatile long m_runStart;
+	
+	/**
+	 * The time (in nanoseconds) the test had been running when it was
+	 * interrupted for exceeding its maximum duration, or 0 if it was not
+	 */
+	private volatile long m_killedAfter = 0;
+	
+	/**
+	 * The time spent in each phase of the experiment's lifecycle, in
+	 * nanoseconds, indexed by the ordinal of the {@link Phase}
+	 */
+	private long[] m_phases = new long[Phase.values().length];
+	
+	/**
+	 * The value of <tt>System.nanoTime()</tt> when the experiment was
+	 * last put in a queue
+	 */
+	private long m_queuedSince = 0;
+	
+	/**
+	 * The settings profile of the Flight Recorder for this experiment, or
+	 * null to use the default one
+	 */
+	private String m_recordingProfile = null;
+	
+	/**
+	 * The path of the Flight Recorder file of the last run, or null
+	 */
+	private volatile String m_recordingPath = null;
+	
+	/**
+	 * The metrics sampled while the experiment runs, indexed by name
+	 */
+	private Map<String,TimeSeries> m_series = new HashMap<String,TimeSeries>();
+	
+	/**
+	 * The value of <tt>System.nanoTime()</tt> when the experiment started
+	 * running, which is time 0 of its time series
+	 */
+	private volatile long m_seriesStart = 0;
 	
 	/**
 	 * Unique ID for this test. This number is meaningless and is
@@ -117,6 +191,137 @@ public abstract class Experiment implements Runnable
 	 */
 	private String m_host;
 	
+	/**
+	 * Whether the experiment measures something that is disturbed by
+	 * other experiments running at the same time
+	 */
+	private boolean m_timingSensitive = false;
+	
+	/**
+	 * The experiments that must be done before this one can start
+	 */
+	private final List<Experiment> m_dependencies = new ArrayList<Experiment>();
+	
+	/**
+	 * The shared resources this experiment uses, with their weight
+	 */
+	private final Map<String,Integer> m_resources = new HashMap<String,Integer>();
+	
+	/**
+	 * Result key for the number of warm-up iterations
+	 */
+	public static final String WARMUP_ITERATIONS = "warmup-iterations";
+	
+	/**
+	 * Result key for the time spent by the JIT compiler during the
+	 * warm-up, in milliseconds
+	 */
+	public static final String WARMUP_JIT_TIME = "warmup-jit-time";
+	
+	/**
+	 * Result key for the time spent by the JIT compiler during the
+	 * measured run, in milliseconds
+	 */
+	public static final String JIT_TIME = "jit-time";
+	
+	/**
+	 * Result key telling whether the JIT compiler stayed idle during the
+	 * measured run
+	 */
+	public static final String JIT_SETTLED = "jit-settled";
+	
+	/**
+	 * Result key for the CPU time of the thread running the experiment,
+	 * in milliseconds
+	 */
+	public static final String CPU_TIME = "cpu-time";
+	
+	/**
+	 * Result key for the user time of the thread running the experiment,
+	 * in milliseconds
+	 */
+	public static final String USER_TIME = "user-time";
+	
+	/**
+	 * Result key for the number of bytes allocated by the thread running
+	 * the experiment
+	 */
+	public static final String ALLOCATED_BYTES = "allocated-bytes";
+	
+	/**
+	 * Result key for the number of garbage collections during the run
+	 */
+	public static final String GC_COUNT = "gc-count";
+	
+	/**
+	 * Result key for the time spent in garbage collections during the
+	 * run, in milliseconds
+	 */
+	public static final String GC_TIME = "gc-time";
+	
+	/**
+	 * The result keys written by the framework itself rather than by the
+	 * experiments
+	 */
+	private static final Set<String> s_reservedKeys = new HashSet<String>(Arrays.asList(
+			JIT_TIME, CPU_TIME, USER_TIME, ALLOCATED_BYTES, GC_COUNT, GC_TIME));
+	
+	/**
+	 * The number of warm-up iterations before measuring
+	 */
+	private int m_warmupIterations = 0;
+	
+	/**
+	 * The minimum duration of the warm-up, in nanoseconds
+	 */
+	private long m_warmupTime = 0;
+	
+	/**
+	 * Whether the experiment runs in a JVM of its own
+	 */
+	private boolean m_forked = false;
+	
+	/**
+	 * The arguments passed to the forked JVM
+	 */
+	private final List<String> m_forkArguments = new ArrayList<String>();
+	
+	/**
+	 * The forked JVM currently running the experiment, if any
+	 */
+	private volatile CommandRunner m_forkRunner = null;
+	
+	/**
+	 * The number of times the experiment is run
+	 */
+	private int m_repetitions = 1;
+	
+	/**
+	 * The relative half-width of the confidence interval under which
+	 * repetitions stop early, or 0 to always run all repetitions
+	 */
+	private float m_targetPrecision = 0;
+	
+	/**
+	 * The number of repetitions to run before stopping early
+	 */
+	private int m_minRepetitions = 3;
+	
+	/**
+	 * Whether the repetitions are interleaved with other experiments
+	 */
+	private boolean m_interleaved = false;
+	
+	/**
+	 * The number of repetitions done so far
+	 */
+	private volatile int m_repetitionsDone = 0;
+	
+	/**
+	 * The samples of each numerical result, over all repetitions
+	 */
+	private Map<String,List<Number>> m_samples = new HashMap<String,List<Number>>();
+	
 	/**
 	 * Creates a new empty experiment
 	 * @param name The name of the experiment
@@ -125,7 +330,7 @@ public abstract class Experiment implements Runnable
 	{
 		super();
 		m_name = name;
-		m_id = s_idCounter++;
+		m_id = nextId(-1);
 		m_parameters = new Parameters();
 		m_results = new Parameters();
 		m_status = Status.NOT_DONE;
@@ -137,12 +342,25 @@ public abstract class Experiment implements Runnable
 		m_killAfter = 0;
 	}
 	
+	/**
+	 * Gives a new experiment ID. Experiments can be created by many
+	 * threads at once, e.g. by an {@link ExperimentListener}.
+	 * @param used An ID that is already taken, and must never be given
+	 *   again; -1 if none
+	 * @return A new ID
+	 */
+	private static synchronized int nextId(int used)
+	{
+		s_idCounter = Math.max(s_idCounter, used + 1);
+		return s_idCounter++;
+	}
+	
 	Experiment(String name, int test_id)
 	{
 		super();
 		m_name = name;
 		m_id = test_id;
-		s_idCounter = Math.max(s_idCounter, test_id + 1);
+		nextId(test_id);
 		m_parameters = new Parameters();
 		m_results = new Parameters();
 		m_status = Status.NOT_DONE;
@@ -181,28 +399,259 @@ public abstract class Experiment implements Runnable
 	 */
 	public final Experiment setKillTime(long sec)
 	{
-		m_killAfter = sec;
+		return setTimeout(sec, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Sets the time after which the benchmark interrupts this experiment.
+	 * The time is counted from the moment the experiment starts running,
+	 * excluding the generation of its prerequisites. Contrary to
+	 * {@link #setKillTime(long)}, this allows durations below one second.
+	 * A value of 0 indicates the experiment should not be interrupted.
+	 * @param duration The duration
+	 * @param unit The unit of the duration
+	 * @return The test instance
+	 */
+	public final Experiment setTimeout(long duration, TimeUnit unit)
+	{
+		m_killAfter = unit.toNanos(duration);
 		return this;
 	}
 	
+	/**
+	 * Gets the time after which the benchmark interrupts this experiment
+	 * @param unit The unit in which to express the time
+	 * @return The time, 0 if the experiment should not be interrupted
+	 */
+	public final long getTimeout(TimeUnit unit)
+	{
+		return unit.convert(m_killAfter, TimeUnit.NANOSECONDS);
+	}
+	
 	/**
 	 * Determines if an experiment can be interrupted by the benchmark
 	 * @return true if can be interrupted, false otherwise
 	 */
 	public final boolean canKill()
 	{
+		long deadline = getDeadline();
+		return deadline >= 0 && deadline != Long.MAX_VALUE
+				&& System.nanoTime() - deadline >= 0;
+	}
+	
+	/**
+	 * Gets the moment at which the experiment exceeds its maximum duration
+	 * @return The value of <tt>System.nanoTime()</tt> at that moment;
+	 *   <tt>Long.MAX_VALUE</tt> if the experiment has no maximum duration,
+	 *   or -1 if it has one but is not running yet
+	 */
+	final long getDeadline()
+	{
+		long timeout = m_killAfter;
+		if (timeout <= 0)
+		{
+			return Long.MAX_VALUE;
+		}
 		if (m_status != Experiment.Status.RUNNING)
 		{
-			// Can't kill a test that is not running
-			return false;
+			return -1;
 		}
-		long cur_time = System.currentTimeMillis() / 1000;
-		if (m_killAfter > 0 && cur_time - m_startTime > m_killAfter)
+		return m_runStart + timeout;
+	}
+	
+	/**
+	 * Marks the experiment as interrupted for exceeding its maximum
+	 * duration, and records how long it had been running
+	 */
+	final void timeout()
+	{
+		m_killedAfter = System.nanoTime() - m_runStart;
+		setFailureMessage("Interrupted after " + TimeUnit.NANOSECONDS.toMillis(m_killedAfter) + " ms");
+		stopWithStatus(Status.TIMEOUT);
+	}
+	
+	/**
+	 * Gets the time the experiment had been running when it was
+	 * interrupted for exceeding its maximum duration
+	 * @param unit The unit in which to express the time
+	 * @return The time, 0 if the experiment was not interrupted
+	 */
+	public final long getKilledAfter(TimeUnit unit)
+	{
+		return unit.convert(m_killedAfter, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Forcibly stops anything this experiment runs outside of its own
+	 * thread, such as external processes. The benchmark calls this method
+	 * when the experiment exceeds its maximum duration, in addition to
+	 * interrupting the experiment's thread. By default, it destroys the
+	 * forked JVM running the experiment, if any (see
+	 * {@link #setForked(boolean)}). Experiments that start processes of
+	 * their own can override this method, and should then call it from
+	 * the overriding method.
+	 */
+	public void kill()
+	{
+		CommandRunner runner = m_forkRunner;
+		if (runner != null)
 		{
-			// Exp has run for long enough: can kill
-			return true;
+			runner.kill();
+		}
+	}
+	
+	/**
+	 * Gets the ID of the process this experiment currently runs outside
+	 * of the JVM, if any. The {@link MetricSampler} uses it to record the
+	 * memory and CPU used by that process. By default, this is the
+	 * forked JVM running the experiment (see {@link #setForked(boolean)}).
+	 * @return The ID, or -1 if there is no such process
+	 */
+	public long getProcessId()
+	{
+		CommandRunner runner = m_forkRunner;
+		if (runner != null)
+		{
+			return runner.getPid();
+		}
+		return -1;
+	}
+	
+	/**
+	 * Records the JVM with the Flight Recorder while this experiment runs.
+	 * The recording covers all the repetitions run in a row; with
+	 * interleaved repetitions, only the last one is kept. See
+	 * {@link FlightRecorder}.
+	 * @param profile The settings profile (<tt>default</tt>,
+	 *   <tt>profile</tt> or the path to a <tt>.jfc</tt> file); null to use
+	 *   the default profile set with
+	 *   {@link FlightRecorder#setDefaultProfile(String)}
+	 * @return This experiment
+	 */
+	public final Experiment setFlightRecording(String profile)
+	{
+		m_recordingProfile = profile;
+		return this;
+	}
+	
+	/**
+	 * Gets the path of the Flight Recorder file of the experiment's last
+	 * run
+	 * @return The path, or null if nothing was recorded
+	 */
+	public final String getRecordingPath()
+	{
+		return m_recordingPath;
+	}
+	
+	/**
+	 * Gets the settings profile of the Flight Recorder for this experiment
+	 * @return The profile, or null if nothing is to be recorded
+	 */
+	private String getRecordingProfile()
+	{
+		if (m_recordingProfile != null)
+		{
+			return m_recordingProfile;
+		}
+		return FlightRecorder.getDefaultProfile();
+	}
+	
+	/**
+	 * Gets a time series of a metric sampled while the experiment was
+	 * running. Sampling is enabled with
+	 * {@link Benchmark#setSamplingInterval(long)}.
+	 * @param name The name of the metric (see {@link MetricSampler})
+	 * @return The series, or null if that metric was not sampled
+	 */
+	public final TimeSeries getTimeSeries(String name)
+	{
+		synchronized (m_series)
+		{
+			return m_series.get(name);
+		}
+	}
+	
+	/**
+	 * Gets the names of the metrics sampled while the experiment was
+	 * running
+	 * @return The names
+	 */
+	public final Set<String> getTimeSeriesNames()
+	{
+		synchronized (m_series)
+		{
+			return new HashSet<String>(m_series.keySet());
 		}
-		return false;
+	}
+	
+	/**
+	 * Adds a sample of a metric to the experiment's time series
+	 * @param name The name of the metric
+	 * @param now The value of <tt>System.nanoTime()</tt> when the sample
+	 *   was taken
+	 * @param value The value of the metric
+	 */
+	final void addSample(String name, long now, float value)
+	{
+		long start = m_seriesStart;
+		if (start == 0)
+		{
+			return;
+		}
+		synchronized (m_series)
+		{
+			TimeSeries series = m_series.get(name);
+			if (series == null)
+			{
+				series = new TimeSeries();
+				m_series.put(name, series);
+			}
+			series.add((int) TimeUnit.NANOSECONDS.toMillis(now - start), value);
+		}
+	}
+	
+	/**
+	 * Sets whether the experiment runs in a JVM of its own. If so, each
+	 * run of the experiment (including its warm-up) starts a new JVM,
+	 * with the same class path as the benchmark. This keeps the JIT
+	 * profile, the heap and the garbage collector of that JVM free from
+	 * the effects of the other experiments. The experiment's class must
+	 * have a public constructor with no argument. Its parameters are sent
+	 * to the forked JVM, and its results read back, through
+	 * {@link #serializeState()} and {@link #deserializeState(JsonMap)}.
+	 * Prerequisites are still generated in the benchmark's own JVM.
+	 * @param b Set to true to run the experiment in a JVM of its own
+	 * @return This experiment
+	 */
+	public final Experiment setForked(boolean b)
+	{
+		m_forked = b;
+		return this;
+	}
+	
+	/**
+	 * Sets the arguments passed to the forked JVM, and runs the
+	 * experiment in such a JVM
+	 * @param arguments The arguments (e.g. <tt>-Xmx2g</tt>)
+	 * @return This experiment
+	 * @see #setForked(boolean)
+	 */
+	public final Experiment setForkArguments(String ... arguments)
+	{
+		m_forkArguments.clear();
+		m_forkArguments.addAll(Arrays.asList(arguments));
+		m_forked = true;
+		return this;
+	}
+	
+	/**
+	 * Determines if the experiment runs in a JVM of its own
+	 * @return true if it does, false otherwise
+	 */
+	public final boolean isForked()
+	{
+		return m_forked;
 	}
 	
 	/**
@@ -295,6 +744,265 @@ public abstract class Experiment implements Runnable
 		m_dryRun = b;
 	}
 	
+	/**
+	 * Declares whether the experiment measures something (typically, its
+	 * running time) that is disturbed by other experiments running at the
+	 * same time. When the benchmark is in exclusive mode (see
+	 * {@link Benchmark#setExclusiveMode(boolean)}), such an experiment
+	 * runs alone.
+	 * @param b Set to true if the experiment is timing-sensitive
+	 * @return This experiment
+	 */
+	public final Experiment setTimingSensitive(boolean b)
+	{
+		m_timingSensitive = b;
+		return this;
+	}
+	
+	/**
+	 * Determines if the experiment is timing-sensitive
+	 * @see #setTimingSensitive(boolean)
+	 * @return true if the experiment is timing-sensitive, false otherwise
+	 */
+	public final boolean isTimingSensitive()
+	{
+		return m_timingSensitive;
+	}
+	
+	/**
+	 * Declares that this experiment can only start once another experiment
+	 * is done; typically, because it uses something the other experiment
+	 * produces. Independent experiments still run in parallel. If the
+	 * other experiment fails, this one is cancelled. Dependencies are
+	 * meant to be declared when the benchmark is set up, before
+	 * experiments are queued.
+	 * @param e The experiment this one depends on
+	 * @return This experiment
+	 * @throws IllegalArgumentException If the dependency would create a
+	 *   cycle
+	 */
+	public final Experiment dependsOn(Experiment e)
+	{
+		if (e == this || e.dependsOn(this, new HashSet<Experiment>()))
+		{
+			throw new IllegalArgumentException("Circular dependency between experiments " + getId() + " and " + e.getId());
+		}
+		if (!m_dependencies.contains(e))
+		{
+			m_dependencies.add(e);
+		}
+		return this;
+	}
+	
+	/**
+	 * Checks whether this experiment depends, directly or not, on another
+	 * @param e The other experiment
+	 * @param visited The experiments already looked at
+	 * @return true if this experiment depends on e, false otherwise
+	 */
+	private boolean dependsOn(Experiment e, Set<Experiment> visited)
+	{
+		for (Experiment dep : m_dependencies)
+		{
+			if (dep == e)
+			{
+				return true;
+			}
+			if (visited.add(dep))
+			{
+				if (dep.dependsOn(e, visited))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Gets the experiments this experiment depends on
+	 * @see #dependsOn(Experiment)
+	 * @return The experiments
+	 */
+	public final List<Experiment> getDependencies()
+	{
+		return Collections.unmodifiableList(m_dependencies);
+	}
+	
+	/**
+	 * Declares that the experiment uses some amount of a shared resource,
+	 * such as <tt>memory</tt> or <tt>disk</tt>. When a capacity is set
+	 * for this resource (see
+	 * {@link Benchmark#setResourceCapacity(String, int)}), experiments
+	 * start only as long as the sum of their weights fits in it.
+	 * @param tag The name of the resource
+	 * @param weight The amount of the resource used; 0 or less means the
+	 *   resource is not used
+	 * @return This experiment
+	 */
+	public final Experiment setResource(String tag, int weight)
+	{
+		if (weight > 0)
+		{
+			m_resources.put(tag, weight);
+		}
+		else
+		{
+			m_resources.remove(tag);
+		}
+		return this;
+	}
+	
+	/**
+	 * Gets the shared resources the experiment uses
+	 * @see #setResource(String, int)
+	 * @return A map from resource names to the amount used
+	 */
+	public final Map<String,Integer> getResources()
+	{
+		return Collections.unmodifiableMap(m_resources);
+	}
+	
+	/**
+	 * Sets the number of warm-up iterations. These iterations call
+	 * {@link #warmUp(Parameters)} before the experiment is measured, so
+	 * that the code it exercises has been compiled by the JIT. Their
+	 * results are discarded. When a warm-up is set, the results also tell
+	 * how long the JIT compiler ran during the warm-up and the measured
+	 * run (see {@link #JIT_TIME} and {@link #JIT_SETTLED}).
+	 * @param iterations The number of iterations
+	 * @return This experiment
+	 */
+	public final Experiment setWarmup(int iterations)
+	{
+		m_warmupIterations = Math.max(0, iterations);
+		return this;
+	}
+	
+	/**
+	 * Sets the minimum duration of the warm-up. Warm-up iterations are
+	 * run until this time has elapsed, and at least as many of them as
+	 * set by {@link #setWarmup(int)}.
+	 * @param time The duration
+	 * @param unit The unit of the duration
+	 * @return This experiment
+	 */
+	public final Experiment setWarmupTime(long time, TimeUnit unit)
+	{
+		m_warmupTime = Math.max(0, unit.toNanos(time));
+		return this;
+	}
+	
+	/**
+	 * Gets the number of warm-up iterations
+	 * @return The number of iterations
+	 */
+	public final int getWarmup()
+	{
+		return m_warmupIterations;
+	}
+	
+	/**
+	 * Gets the minimum duration of the warm-up
+	 * @param unit The unit of the duration
+	 * @return The duration
+	 */
+	public final long getWarmupTime(TimeUnit unit)
+	{
+		return unit.convert(m_warmupTime, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Runs one warm-up iteration. By default, this calls
+	 * {@link #runExperiment(Parameters, Parameters)} and throws away its
+	 * results. Experiments whose run modifies its input (a file, an array
+	 * read from a file...) should override this method and work on a
+	 * copy of that input.
+	 * @param input A copy of the experiment's parameters
+	 */
+	protected void warmUp(final Parameters input)
+	{
+		runExperiment(input, new Parameters());
+	}
+	
+	/**
+	 * Sets the number of times the experiment is run. The numerical
+	 * results of each run are kept as samples (see
+	 * {@link #getSamples(String)}). In the experiment's results, each
+	 * numerical result <tt>x</tt> is replaced by the mean of its samples,
+	 * and <tt>x.median</tt>, <tt>x.stddev</tt>, <tt>x.min</tt>,
+	 * <tt>x.max</tt>, <tt>x.ci-low</tt> and <tt>x.ci-high</tt> (the 95%
+	 * confidence interval on the mean) are added. A maximum duration set
+	 * with {@link #setTimeout(long, TimeUnit)} applies to each run.
+	 * @param n The number of runs
+	 * @return This experiment
+	 */
+	public final Experiment setRepetitions(int n)
+	{
+		m_repetitions = Math.max(1, n);
+		return this;
+	}
+	
+	/**
+	 * Gets the number of times the experiment is run
+	 * @return The number of runs
+	 */
+	public final int getRepetitions()
+	{
+		return m_repetitions;
+	}
+	
+	/**
+	 * Stops the repetitions early, once the confidence interval on the
+	 * mean of every numerical result is narrow enough. Results measured
+	 * by the framework (such as {@link #CPU_TIME}) are not considered.
+	 * @param relative_half_width The half-width of the interval, relative
+	 *   to the mean, under which to stop (e.g. 0.05 for &plusmn;5%); 0 to
+	 *   always run all repetitions
+	 * @param min_repetitions The number of runs to do before stopping
+	 * @return This experiment
+	 */
+	public final Experiment setTargetPrecision(float relative_half_width, int min_repetitions)
+	{
+		m_targetPrecision = relative_half_width;
+		m_minRepetitions = Math.max(2, min_repetitions);
+		return this;
+	}
+	
+	/**
+	 * Sets whether the repetitions are interleaved with other experiments.
+	 * If so, the experiment goes back to the queue after each run, so that
+	 * perturbations of the machine are spread over many experiments
+	 * rather than affecting all the runs of one of them.
+	 * @param b Set to true to interleave the repetitions
+	 * @return This experiment
+	 */
+	public final Experiment setInterleaved(boolean b)
+	{
+		m_interleaved = b;
+		return this;
+	}
+	
+	/**
+	 * Gets the samples of a numerical result, over all the repetitions
+	 * done so far
+	 * @param key The name of the result
+	 * @return The samples, in the order they were taken; empty if there
+	 *   are none
+	 */
+	public final List<Number> getSamples(String key)
+	{
+		synchronized (m_samples)
+		{
+			List<Number> samples = m_samples.get(key);
+			if (samples == null)
+			{
+				return new ArrayList<Number>();
+			}
+			return new ArrayList<Number>(samples);
+		}
+	}
+	
 	/**
 	 * Gets the dry run status of this experiment
 	 * @see #setDryRun(boolean)   
@@ -401,9 +1109,69 @@ public abstract class Experiment implements Runnable
 	 * manage experiments in a suite.
 	 * @param s The status
 	 */
-	public final void setStatus(Status s)
+	public final void setStatus(Status s)
+	{
+		synchronized (m_phases)
+		{
+			Status previous = m_status;
+			m_status = s;
+			if (s == Status.QUEUED && previous != Status.QUEUED)
+			{
+				m_queuedSince = System.nanoTime();
+			}
+			else if (s != Status.QUEUED && previous == Status.QUEUED)
+			{
+				m_phases[Phase.QUEUE.ordinal()] += System.nanoTime() - m_queuedSince;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the time spent by the experiment in a phase of its lifecycle.
+	 * Durations are measured with <tt>System.nanoTime()</tt>, and add up
+	 * if the experiment goes through the same phase many times (e.g.
+	 * when its repetitions are interleaved with other experiments).
+	 * @param p The phase
+	 * @param unit The unit of the duration
+	 * @return The duration
+	 */
+	public final long getPhaseDuration(Phase p, TimeUnit unit)
+	{
+		synchronized (m_phases)
+		{
+			return unit.convert(m_phases[p.ordinal()], TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * Adds time to a phase of the experiment's lifecycle
+	 * @param p The phase
+	 * @param duration The duration, in nanoseconds
+	 */
+	private void addPhase(Phase p, long duration)
+	{
+		synchronized (m_phases)
+		{
+			m_phases[p.ordinal()] += duration;
+		}
+	}
+	
+	/**
+	 * Forgets the time spent in each phase, except the cleanup, which
+	 * happens before the experiment is started again
+	 */
+	final void resetPhases()
 	{
-		m_status = s;
+		synchronized (m_phases)
+		{
+			for (Phase p : Phase.values())
+			{
+				if (p != Phase.CLEANUP)
+				{
+					m_phases[p.ordinal()] = 0;
+				}
+			}
+		}
 	}
 	
 	/**
@@ -477,6 +1245,38 @@ public abstract class Experiment implements Runnable
 		return true;
 	}
 	
+	/**
+	 * Estimates how long the experiment will take to run. This is used by
+	 * the {@link LongestFirstPolicy} to decide which experiments to start
+	 * first. Override this method if you have a good idea of the running
+	 * time of your experiment; otherwise, the policy estimates it from
+	 * the experiments that have already finished.
+	 * @param input The experiment's parameters
+	 * @return The estimated running time, in milliseconds, or a negative
+	 *   value if no estimate is available
+	 */
+	public float estimateCost(final Parameters input)
+	{
+		return -1;
+	}
+	
+	/**
+	 * Estimates how much heap memory the experiment needs while it runs.
+	 * When a heap budget is set with
+	 * {@link Benchmark#setHeapBudget(long)}, the {@link ThreadDispatcher}
+	 * uses it to avoid starting more experiments at once than the heap can
+	 * hold (see {@link HeapBudgetRule}). Override this method for experiments that
+	 * allocate large structures inside the JVM; a rough upper bound is
+	 * enough.
+	 * @param input The experiment's parameters
+	 * @return The estimated footprint, in bytes, or 0 if unknown or
+	 *   negligible
+	 */
+	public long estimateHeapFootprint(final Parameters input)
+	{
+		return 0;
+	}
+	
 	/**
 	 * Fulfill the prerequisites for the experiment. This includes calling
 	 * any additional commands, generating any files, etc. that the
@@ -510,10 +1310,116 @@ public abstract class Experiment implements Runnable
 	}
 
 	/**
-	 * Runs the experiment.
+	 * Runs the experiment. This generates the prerequisites, if needed,
+	 * and then runs the experiment itself in the current thread.
 	 */
 	@Override
 	public final void run()
+	{
+		startRepetitions();
+		if (!prepare())
+		{
+			return;
+		}
+		measure();
+		while (needsMoreRepetitions())
+		{
+			measure();
+		}
+	}
+	
+	/**
+	 * Generates the prerequisites of the experiment, if they are not
+	 * fulfilled
+	 * @return true if the prerequisites are fulfilled, false if their
+	 *   generation failed or was cancelled
+	 */
+	final boolean prepare()
+	{
+		if (!prerequisitesFulilled(m_parameters))
+		{
+			// Before running, generate the prerequisites
+			return generatePrerequisites();
+		}
+		return true;
+	}
+	
+	/**
+	 * Runs the first stage of the experiment, which is to generate its
+	 * prerequisites. The {@link ThreadDispatcher} calls this method from
+	 * a thread separate from the ones that run experiments, so that
+	 * generating data does not occupy a measurement thread. If the
+	 * prerequisites are already fulfilled when this method is called
+	 * (e.g. another experiment generated the same files in the meantime),
+	 * nothing is generated.
+	 * @return true if the prerequisites are fulfilled, false if their
+	 *   generation failed or was cancelled
+	 */
+	final boolean generatePrerequisites()
+	{
+		m_startTime = System.currentTimeMillis() / 1000;
+		setStatus(Status.PREREQUISITES);
+		long start = System.nanoTime();
+		boolean fulfilled;
+		try
+		{
+			fulfilled = prerequisitesFulilled(m_parameters) || fulfillPrerequisites(m_parameters);
+		}
+		finally
+		{
+			addPhase(Phase.PREREQUISITES, System.nanoTime() - start);
+		}
+		if (fulfilled)
+		{
+			return true;
+		}
+		setFailureMessage(
+				"Experiment cancelled while generating prerequisites");
+		setStatus(Status.FAILED);
+		return false;
+	}
+	
+	/**
+	 * Runs the second stage of the experiment, which is to call
+	 * {@link #runExperiment(Parameters, Parameters)}. The prerequisites
+	 * are expected to be fulfilled. If the experiment has many
+	 * repetitions, they are all run, unless they are interleaved; in
+	 * such a case, only one is run.
+	 */
+	final void measure()
+	{
+		long start = System.nanoTime();
+		if (m_seriesStart == 0)
+		{
+			m_seriesStart = start;
+		}
+		FlightRecorder recorder = null;
+		String profile = getRecordingProfile();
+		if (profile != null && !m_forked)
+		{
+			// Forked JVMs record themselves
+			recorder = FlightRecorder.start(this, profile);
+		}
+		try
+		{
+			runRepetitions();
+		}
+		finally
+		{
+			addPhase(Phase.RUN, System.nanoTime() - start);
+			if (recorder != null)
+			{
+				File file = recorder.stop();
+				m_recordingPath = file == null ? null : file.getPath();
+			}
+		}
+	}
+	
+	/**
+	 * Runs the experiment, as many times as needed
+	 * @see #measure()
+	 */
+	private void runRepetitions()
 	{
 		try
 		{
@@ -526,23 +1432,306 @@ public abstract class Experiment implements Runnable
 			m_host = null;
 		}
 		m_startTime = System.currentTimeMillis() / 1000;
-		boolean prerequisites = true;
-		if (!prerequisitesFulilled(m_parameters))
+		m_killedAfter = 0;
+		if (m_repetitions <= 1)
 		{
-			// Before running, generate the prerequisites
-			setStatus(Status.PREREQUISITES);
-			prerequisites = fulfillPrerequisites(m_parameters);
+			runOnce(m_results);
+			return;
+		}
+		do
+		{
+			Parameters results = new Parameters();
+			if (!runOnce(results))
+			{
+				// This run failed: so does the experiment
+				return;
+			}
+			addRepetition(results);
+		} while (!m_interleaved && needsMoreRepetitions());
+	}
+	
+	/**
+	 * Runs the experiment once, after warming it up if this is its first
+	 * run
+	 * @param results Where to put the results of the run
+	 * @return true if the run succeeded, false otherwise
+	 */
+	final boolean runOnce(Parameters results)
+	{
+		m_runStart = System.nanoTime();
+		setStatus(Status.RUNNING);
+		if (m_forked)
+		{
+			return runForked(results);
+		}
+		boolean warm = m_warmupIterations > 0 || m_warmupTime > 0;
+		if (warm && m_repetitionsDone == 0)
+		{
+			if (!runWarmup())
+			{
+				return false;
+			}
+			// The timeout applies to the measured run only
+			m_runStart = System.nanoTime();
+		}
+		long jit_start = getCompilationTime();
+		ResourceUsage usage_start = new ResourceUsage();
+		runExperiment(m_parameters, results);
+		new ResourceUsage().putDifference(usage_start, results);
+		if (warm && jit_start >= 0)
+		{
+			long jit_time = getCompilationTime() - jit_start;
+			results.put(JIT_TIME, jit_time);
+			results.put(JIT_SETTLED, jit_time == 0 ? "true" : "false");
+		}
+		Status s = m_status;
+		return s == Status.DONE || s == Status.RUNNING;
+	}
+	
+	/**
+	 * Runs the experiment once in a new JVM. The forked JVM runs
+	 * {@link ForkedExperiment}, which receives the state of this
+	 * experiment on its standard input, and prints the state of the
+	 * experiment after the run on its standard output.
+	 * @param results Where to put the results of the run
+	 * @return true if the run succeeded, false otherwise
+	 */
+	private boolean runForked(Parameters results)
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(m_forkArguments);
+		String profile = getRecordingProfile();
+		if (profile != null)
+		{
+			command.add(FlightRecorder.getJvmOption(this, profile));
+			m_recordingPath = FlightRecorder.getFile(this).getPath();
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ForkedExperiment.class.getName());
+		command.add(getClass().getName());
+		JsonMap state = serializeState();
+		state.put(WARMUP_ITERATIONS, m_warmupIterations);
+		state.put("warmup-time", m_warmupTime);
+		CommandRunner runner = new CommandRunner(command, state.toString());
+		m_forkRunner = runner;
+		try
+		{
+			runner.run();
+		}
+		finally
+		{
+			m_forkRunner = null;
+		}
+		if (Thread.currentThread().isInterrupted())
+		{
+			// Cancelled or timed out: the forked JVM is already gone
+			if (m_status == Status.RUNNING)
+			{
+				stopWithStatus(Status.FAILED);
+			}
+			return false;
+		}
+		JsonMap out_state;
+		try
+		{
+			out_state = (JsonMap) new JsonParser().parse(runner.getString());
+		}
+		catch (JsonParseException e)
+		{
+			out_state = null;
+		}
+		catch (ClassCastException e)
+		{
+			out_state = null;
+		}
+		if (out_state == null)
+		{
+			setFailureMessage("The forked JVM exited with code " + runner.getErrorCode() + " and no result");
+			stopWithStatus(Status.FAILED);
+			return false;
+		}
+		readParameters((JsonMap) out_state.get("results"), results);
+		String message = out_state.getString("failure-message");
+		if (message != null && !message.isEmpty())
+		{
+			setFailureMessage(message);
+		}
+		Status s = stringToStatus(out_state.getString("status"));
+		if (s != Status.RUNNING)
+		{
+			stopWithStatus(s);
+		}
+		return s == Status.DONE || s == Status.RUNNING;
+	}
+	
+	/**
+	 * Sets the warm-up of the experiment as found in a JSON structure
+	 * written by {@link #runForked(Parameters)}
+	 * @param state The JSON structure
+	 */
+	final void readWarmup(JsonMap state)
+	{
+		if (state.containsKey(WARMUP_ITERATIONS))
+		{
+			m_warmupIterations = state.getNumber(WARMUP_ITERATIONS).intValue();
+		}
+		if (state.containsKey("warmup-time"))
+		{
+			m_warmupTime = state.getNumber("warmup-time").longValue();
 		}
-		if (prerequisites)
+	}
+	
+	/**
+	 * Runs the warm-up iterations of the experiment. Their statistics go
+	 * directly in the experiment's results, as they are not aggregated
+	 * over repetitions.
+	 * @return true if the warm-up succeeded, false otherwise
+	 */
+	private boolean runWarmup()
+	{
+		long jit_start = getCompilationTime();
+		long start = System.nanoTime();
+		int iterations = 0;
+		while (iterations < m_warmupIterations || System.nanoTime() - start < m_warmupTime)
 		{
+			warmUp(new Parameters(m_parameters));
+			iterations++;
+			Status s = m_status;
+			if (s != Status.DONE && s != Status.RUNNING)
+			{
+				return false;
+			}
 			setStatus(Status.RUNNING);
-			runExperiment(m_parameters, m_results);
 		}
-		else
+		m_results.put(WARMUP_ITERATIONS, iterations);
+		if (jit_start >= 0)
+		{
+			m_results.put(WARMUP_JIT_TIME, getCompilationTime() - jit_start);
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the total time spent by the JIT compiler since the JVM started.
+	 * Note that this time includes compilations triggered by all the
+	 * threads, and not only the experiment's.
+	 * @return The time in milliseconds, or -1 if it cannot be measured
+	 */
+	private static long getCompilationTime()
+	{
+		CompilationMXBean bean = ManagementFactory.getCompilationMXBean();
+		if (bean == null || !bean.isCompilationTimeMonitoringSupported())
+		{
+			return -1;
+		}
+		return bean.getTotalCompilationTime();
+	}
+	
+	/**
+	 * Forgets the samples of previous repetitions
+	 */
+	final void startRepetitions()
+	{
+		synchronized (m_samples)
+		{
+			m_samples.clear();
+			m_repetitionsDone = 0;
+		}
+		synchronized (m_series)
+		{
+			m_series.clear();
+			m_seriesStart = 0;
+		}
+	}
+	
+	/**
+	 * Determines if the experiment must run again
+	 * @return true if the last run succeeded and more repetitions are
+	 *   needed, false otherwise
+	 */
+	final boolean needsMoreRepetitions()
+	{
+		if (m_repetitions <= 1 || m_repetitionsDone >= m_repetitions)
+		{
+			return false;
+		}
+		Status s = m_status;
+		if (s != Status.DONE && s != Status.RUNNING)
+		{
+			return false;
+		}
+		if (m_targetPrecision > 0 && m_repetitionsDone >= m_minRepetitions)
+		{
+			synchronized (m_samples)
+			{
+				boolean precise = true;
+				for (Map.Entry<String,List<Number>> entry : m_samples.entrySet())
+				{
+					if (s_reservedKeys.contains(entry.getKey()))
+					{
+						// Only the experiment's own results decide
+						continue;
+					}
+					if (new SampleStatistics(entry.getValue()).getRelativeHalfWidth() > m_targetPrecision)
+					{
+						precise = false;
+						break;
+					}
+				}
+				if (precise)
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds the results of one run to the samples, and updates the
+	 * statistics in the experiment's results
+	 * @param results The results of the run
+	 */
+	private void addRepetition(Parameters results)
+	{
+		synchronized (m_samples)
 		{
-			setFailureMessage(
-					"Experiment cancelled while generating prerequisites");
-			setStatus(Status.FAILED);
+			for (String key : results.keySet())
+			{
+				Object value = results.get(key);
+				if (value instanceof Number)
+				{
+					List<Number> samples = m_samples.get(key);
+					if (samples == null)
+					{
+						samples = new ArrayList<Number>();
+						m_samples.put(key, samples);
+					}
+					samples.add((Number) value);
+				}
+				else
+				{
+					m_results.put(key, value);
+				}
+			}
+			m_repetitionsDone++;
+			for (Map.Entry<String,List<Number>> entry : m_samples.entrySet())
+			{
+				String key = entry.getKey();
+				SampleStatistics stats = new SampleStatistics(entry.getValue());
+				m_results.put(key, (float) stats.getMean());
+				m_results.put(key + ".median", (float) stats.getMedian());
+				m_results.put(key + ".stddev", (float) stats.getStandardDeviation());
+				m_results.put(key + ".min", (float) stats.getMin());
+				m_results.put(key + ".max", (float) stats.getMax());
+				if (stats.getCount() > 1)
+				{
+					m_results.put(key + ".ci-low", (float) (stats.getMean() - stats.getHalfWidth()));
+					m_results.put(key + ".ci-high", (float) (stats.getMean() + stats.getHalfWidth()));
+				}
+			}
 		}
 	}
 
@@ -561,7 +1750,7 @@ public abstract class Experiment implements Runnable
 	{
 		Experiment t = newExperiment();
 		t.setId(test_id);
-		s_idCounter = Math.max(s_idCounter, test_id + 1);
+		nextId(test_id);
 		return t;
 	}
 	
@@ -651,8 +1840,37 @@ public abstract class Experiment implements Runnable
 		out.put("id", m_id);
 		out.put("starttime", m_startTime);
 		out.put("endtime", m_stopTime);
+		JsonMap phases = new JsonMap();
+		synchronized (m_phases)
+		{
+			for (Phase p : Phase.values())
+			{
+				phases.put(p.name().toLowerCase(), m_phases[p.ordinal()]);
+			}
+		}
+		out.put("phases", phases);
+		if (m_recordingPath != null)
+		{
+			out.put("recording", m_recordingPath);
+		}
+		synchronized (m_series)
+		{
+			if (!m_series.isEmpty())
+			{
+				JsonMap series = new JsonMap();
+				for (Map.Entry<String,TimeSeries> entry : m_series.entrySet())
+				{
+					series.put(entry.getKey(), entry.getValue().toJson());
+				}
+				out.put("series", series);
+			}
+		}
 		out.put("host", m_host);
 		out.put("failure-message", m_failureMessage);
+		if (m_killedAfter > 0)
+		{
+			out.put("killed-after", TimeUnit.NANOSECONDS.toMillis(m_killedAfter));
+		}
 		if (prerequisitesFulilled(m_parameters))
 		{
 			out.put("prerequisites", "true");
@@ -683,6 +1901,70 @@ public abstract class Experiment implements Runnable
 			out_params.put(param_name, value);
 		}		
 		out.put("results", out_params);
+		synchronized (m_samples)
+		{
+			if (!m_samples.isEmpty())
+			{
+				JsonMap samples = new JsonMap();
+				for (Map.Entry<String,List<Number>> entry : m_samples.entrySet())
+				{
+					JsonList list = new JsonList();
+					for (Number n : entry.getValue())
+					{
+						list.add(n);
+					}
+					samples.put(entry.getKey(), list);
+				}
+				out.put("samples", samples);
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Releases memory held by a finished experiment, without losing any
+	 * of its data. Its parameters and results are copied into maps of the
+	 * right size, and the unused space of its samples and time series is
+	 * freed. This is meant for benchmarks that keep a large number of
+	 * finished experiments, such as those created by a {@link Sweep}.
+	 */
+	public final void compact()
+	{
+		Status s = m_status;
+		if (s != Status.DONE && s != Status.FAILED && s != Status.TIMEOUT)
+		{
+			return;
+		}
+		m_parameters = compact(m_parameters);
+		m_results = compact(m_results);
+		synchronized (m_samples)
+		{
+			for (List<Number> samples : m_samples.values())
+			{
+				if (samples instanceof ArrayList)
+				{
+					((ArrayList<Number>) samples).trimToSize();
+				}
+			}
+		}
+		synchronized (m_series)
+		{
+			for (TimeSeries series : m_series.values())
+			{
+				series.trimToSize();
+			}
+		}
+	}
+	
+	/**
+	 * Copies a set of parameters into a map of the right size
+	 * @param params The parameters
+	 * @return The copy
+	 */
+	private static Parameters compact(Parameters params)
+	{
+		Parameters out = new Parameters(params.size());
+		out.putAll(params);
 		return out;
 	}
 	
@@ -699,6 +1981,12 @@ public abstract class Experiment implements Runnable
 		m_results = t.m_results;
 		m_startTime = t.m_startTime;
 		m_stopTime = t.m_stopTime;
+		m_killedAfter = t.m_killedAfter;
+		m_samples = t.m_samples;
+		m_phases = t.m_phases;
+		m_series = t.m_series;
+		m_recordingPath = t.m_recordingPath;
+		m_repetitionsDone = t.m_repetitionsDone;
 		m_status = t.m_status;
 		m_failureMessage = t.m_failureMessage;
 		return this;
@@ -710,10 +1998,50 @@ public abstract class Experiment implements Runnable
 	 */
 	public void deserializeState(JsonMap state)
 	{
-		JsonMap in_params = (JsonMap) state.get("input");
+		deserializeResults(state);
+		readParameters((JsonMap) state.get("input"), m_parameters);
+	}
+	
+	/**
+	 * Sets the status, results and measurements of the experiment to the
+	 * contents of a JSON structure, leaving its input parameters as they
+	 * are
+	 * @param state The JSON structure, as produced by
+	 *   {@link #serializeState()}
+	 */
+	final void deserializeResults(JsonMap state)
+	{
 		JsonMap out_params = (JsonMap) state.get("results");
-		m_startTime = state.getNumber("starttime").intValue();
-		m_stopTime = state.getNumber("endtime").intValue();
+		m_startTime = state.getNumber("starttime").longValue();
+		m_stopTime = state.getNumber("endtime").longValue();
+		if (state.containsKey("recording"))
+		{
+			m_recordingPath = state.getString("recording");
+		}
+		if (state.containsKey("series"))
+		{
+			JsonMap series = (JsonMap) state.get("series");
+			synchronized (m_series)
+			{
+				m_series.clear();
+				for (String key : series.keySet())
+				{
+					m_series.put(key, TimeSeries.fromJson((JsonMap) series.get(key)));
+				}
+			}
+		}
+		if (state.containsKey("phases"))
+		{
+			JsonMap phases = (JsonMap) state.get("phases");
+			synchronized (m_phases)
+			{
+				for (Phase p : Phase.values())
+				{
+					String key = p.name().toLowerCase();
+					m_phases[p.ordinal()] = phases.containsKey(key) ? phases.getNumber(key).longValue() : 0;
+				}
+			}
+		}
 		m_status = stringToStatus(state.getString("status"));
 		if (m_status == Status.QUEUED || m_status == Status.RUNNING ||
 				m_status == Status.PREREQUISITES)
@@ -730,36 +2058,55 @@ public abstract class Experiment implements Runnable
 			}
 		}
 		m_failureMessage = state.getString("failure-message");
-		for (String param_name : in_params.keySet())
+		if (state.containsKey("samples"))
 		{
-			JsonElement param_value = in_params.get(param_name);
-			if (param_value instanceof JsonNumber)
-			{
-				m_parameters.put(param_name, ((JsonNumber) param_value).numberValue());
-			}
-			else if (param_value instanceof JsonString)
-			{
-				m_parameters.put(param_name, ((JsonString) param_value).stringValue());
-			}
-			else
+			JsonMap samples = (JsonMap) state.get("samples");
+			synchronized (m_samples)
 			{
-				m_parameters.put(param_name, param_value);
+				m_samples.clear();
+				for (String key : samples.keySet())
+				{
+					List<Number> list = new ArrayList<Number>();
+					for (JsonElement el : (JsonList) samples.get(key))
+					{
+						list.add(((JsonNumber) el).numberValue());
+					}
+					m_samples.put(key, list);
+				}
 			}
 		}
-		for (String param_name : out_params.keySet())
+		if (state.containsKey("killed-after"))
+		{
+			m_killedAfter = TimeUnit.MILLISECONDS.toNanos(state.getNumber("killed-after").longValue());
+		}
+		readParameters(out_params, m_results);
+	}
+	
+	/**
+	 * Copies the contents of a JSON structure into a set of parameters
+	 * @param in The JSON structure
+	 * @param out The parameters
+	 */
+	private static void readParameters(JsonMap in, Parameters out)
+	{
+		if (in == null)
+		{
+			return;
+		}
+		for (String param_name : in.keySet())
 		{
-			JsonElement param_value = out_params.get(param_name);
+			JsonElement param_value = in.get(param_name);
 			if (param_value instanceof JsonNumber)
 			{
-				m_results.put(param_name, ((JsonNumber) param_value).numberValue());
+				out.put(param_name, ((JsonNumber) param_value).numberValue());
 			}
 			else if (param_value instanceof JsonString)
 			{
-				m_results.put(param_name, ((JsonString) param_value).stringValue());
+				out.put(param_name, ((JsonString) param_value).stringValue());
 			}
 			else
 			{
-				m_results.put(param_name, param_value);
+				out.put(param_name, param_value);
 			}
 		}
 	}
@@ -824,8 +2171,15 @@ public abstract class Experiment implements Runnable
 	public final void reset()
 	{
 		setStatus(Status.NOT_DONE);
+		resetPhases();
+		long start = System.nanoTime();
 		clean(m_parameters);
+		synchronized (m_phases)
+		{
+			m_phases[Phase.CLEANUP.ordinal()] = System.nanoTime() - start;
+		}
 		m_results.clear();
+		startRepetitions();
 	}
 	
 	/**
@@ -835,7 +2189,9 @@ public abstract class Experiment implements Runnable
 	public final void resetState()
 	{
 		setStatus(Status.NOT_DONE);
+		resetPhases();
 		m_results.clear();
+		startRepetitions();
 	}
 	
 	/**
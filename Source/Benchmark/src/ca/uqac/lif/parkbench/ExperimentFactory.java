@@ -0,0 +1,36 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+/**
+ * Creates the experiment for a combination of parameters. This is used by
+ * a {@link Sweep}, which only creates experiments as they are about to
+ * run.
+ * 
+ * @author Sylvain Hallé
+ */
+public interface ExperimentFactory
+{
+	/**
+	 * Creates an experiment
+	 * @param params The values of the parameters of the experiment
+	 * @return The experiment, with these parameters set; null if no
+	 *   experiment should be created for this combination
+	 */
+	public Experiment newExperiment(Parameters params);
+}
@@ -0,0 +1,36 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+/**
+ * Receives notifications when the experiments of a {@link Benchmark}
+ * finish. Listeners are notified from the thread that ran the
+ * experiment, so they should return quickly; they may add and queue new
+ * experiments in the benchmark.
+ * 
+ * @author Sylvain Hallé
+ * @see Benchmark#addListener(ExperimentListener)
+ */
+public interface ExperimentListener
+{
+	/**
+	 * Called when an experiment ends, whether it succeeded or not
+	 * @param e The experiment
+	 */
+	public void experimentFinished(Experiment e);
+}
@@ -0,0 +1,431 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A queue of experiments ordered according to a {@link SchedulingPolicy}.
+ * Experiments with the highest priority come out first; experiments with
+ * the same priority come out in their order of arrival.
+ * <p>
+ * This class is not thread-safe; the {@link ThreadDispatcher} only
+ * accesses it while holding its own monitor.
+ * 
+ * @author Sylvain Hallé
+ */
+public class ExperimentQueue extends AbstractQueue<Experiment>
+{
+	/**
+	 * The number of times an experiment can be skipped by admission rules
+	 * by default, before the queue waits for it
+	 */
+	public static final int DEFAULT_MAX_SKIPS = 10;
+	
+	/**
+	 * The entries of the queue
+	 */
+	protected TreeSet<Entry> m_entries;
+	
+	/**
+	 * The entries of the queue, grouped by experiment name, so that the
+	 * experiments of a single name can be reordered without going
+	 * through the whole queue
+	 */
+	protected Map<String,Set<Entry>> m_byName;
+	
+	/**
+	 * The policy used to compute priorities
+	 */
+	protected SchedulingPolicy m_policy;
+	
+	/**
+	 * A counter used to break ties in order of arrival
+	 */
+	protected long m_sequence = 0;
+	
+	/**
+	 * Whether the policy has already asked for the queue to be reordered
+	 */
+	protected boolean m_reordered = false;
+	
+	/**
+	 * The number of times an experiment can be skipped by admission
+	 * rules, before the queue waits for it
+	 */
+	protected int m_maxSkips = DEFAULT_MAX_SKIPS;
+	
+	/**
+	 * Creates an empty queue that starts the longest experiments first
+	 */
+	public ExperimentQueue()
+	{
+		this(new LongestFirstPolicy());
+	}
+	
+	/**
+	 * Creates an empty queue
+	 * @param policy The scheduling policy to use
+	 */
+	public ExperimentQueue(SchedulingPolicy policy)
+	{
+		super();
+		m_policy = policy;
+		m_entries = new TreeSet<Entry>();
+		m_byName = new HashMap<String,Set<Entry>>();
+	}
+	
+	/**
+	 * Sets the scheduling policy used by this queue. The experiments
+	 * already in the queue are reordered according to the new policy.
+	 * @param policy The policy
+	 */
+	public void setPolicy(SchedulingPolicy policy)
+	{
+		m_policy = policy;
+		m_reordered = false;
+		reprioritize();
+	}
+	
+	/**
+	 * Gets the scheduling policy used by this queue
+	 * @return The policy
+	 */
+	public SchedulingPolicy getPolicy()
+	{
+		return m_policy;
+	}
+	
+	/**
+	 * Sets how many times an experiment can be skipped by admission rules
+	 * before the queue waits for it. Without this limit, a steady stream
+	 * of light experiments could keep a heavy one from ever starting.
+	 * @param n The number of times; 0 or less means no limit
+	 */
+	public void setMaxSkips(int n)
+	{
+		m_maxSkips = n;
+	}
+	
+	/**
+	 * Gets how many times an experiment can be skipped by admission rules
+	 * before the queue waits for it
+	 * @return The number of times; 0 or less means no limit
+	 */
+	public int getMaxSkips()
+	{
+		return m_maxSkips;
+	}
+	
+	/**
+	 * Informs the queue that an experiment has finished. This is passed to
+	 * the scheduling policy, and the queued experiments with the same
+	 * name are reordered if the policy asks for it. The first time, the
+	 * whole queue is reordered, since the priorities computed before any
+	 * experiment had finished may have been rough guesses.
+	 * @param e The experiment
+	 * @param duration The time the experiment spent in its thread, in
+	 *   nanoseconds
+	 * @return true if the queue was reordered, false otherwise. Other
+	 *   queues sharing the same policy should then be reordered with
+	 *   {@link #reorder(String)}.
+	 */
+	public boolean experimentFinished(Experiment e, long duration)
+	{
+		if (m_policy.experimentFinished(e, duration))
+		{
+			reorder(e.getName());
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Reorders the queue after the policy has learned from an experiment,
+	 * without telling the policy about it again. The first time, the whole
+	 * queue is reordered; afterwards, only the experiments with the same
+	 * name.
+	 * @param name The name of the experiment
+	 */
+	public void reorder(String name)
+	{
+		if (m_reordered)
+		{
+			reprioritize(name);
+		}
+		else
+		{
+			m_reordered = true;
+			reprioritize();
+		}
+	}
+	
+	/**
+	 * Computes again the priority of every experiment in the queue
+	 */
+	public void reprioritize()
+	{
+		List<Entry> entries = new ArrayList<Entry>(m_entries);
+		m_entries.clear();
+		for (Entry en : entries)
+		{
+			en.m_priority = m_policy.getPriority(en.m_experiment);
+		}
+		m_entries.addAll(entries);
+	}
+	
+	/**
+	 * Computes again the priority of the experiments in the queue that
+	 * have a given name. The other entries are not touched.
+	 * @param name The name of the experiments
+	 */
+	public void reprioritize(String name)
+	{
+		Set<Entry> entries = m_byName.get(name);
+		if (entries == null)
+		{
+			return;
+		}
+		for (Entry en : entries)
+		{
+			// The entry must leave the set before its priority changes
+			m_entries.remove(en);
+			en.m_priority = m_policy.getPriority(en.m_experiment);
+			m_entries.add(en);
+		}
+	}
+
+	@Override
+	public boolean offer(Experiment e)
+	{
+		Entry en = new Entry(e, m_policy.getPriority(e), m_sequence++);
+		m_entries.add(en);
+		Set<Entry> entries = m_byName.get(e.getName());
+		if (entries == null)
+		{
+			entries = new HashSet<Entry>();
+			m_byName.put(e.getName(), entries);
+		}
+		entries.add(en);
+		return true;
+	}
+
+	@Override
+	public Experiment poll()
+	{
+		Entry en = m_entries.pollFirst();
+		if (en == null)
+		{
+			return null;
+		}
+		forget(en);
+		return en.m_experiment;
+	}
+	
+	/**
+	 * Removes an entry that has left the queue from the index of
+	 * entries by name
+	 * @param en The entry
+	 */
+	protected void forget(Entry en)
+	{
+		String name = en.m_experiment.getName();
+		Set<Entry> entries = m_byName.get(name);
+		if (entries != null)
+		{
+			entries.remove(en);
+			if (entries.isEmpty())
+			{
+				m_byName.remove(name);
+			}
+		}
+	}
+
+	/**
+	 * Removes from the queue the first experiment admitted by a list of
+	 * rules. Experiments that are skipped stay in the queue, in the same
+	 * order. An experiment that has already been skipped
+	 * {@link #getMaxSkips()} times is waited for instead, so that the
+	 * experiments after it do not start until it does.
+	 * @param rules The admission rules
+	 * @param running The experiments currently running
+	 * @return The experiment, or null if no experiment can start
+	 */
+	public Experiment poll(List<AdmissionRule> rules, Collection<Experiment> running)
+	{
+		if (rules.isEmpty())
+		{
+			return poll();
+		}
+		List<Entry> skipped = new ArrayList<Entry>();
+		Experiment out = null;
+		Entry en = null;
+		while ((en = m_entries.pollFirst()) != null)
+		{
+			AdmissionRule.Decision d = admit(rules, en.m_experiment, running);
+			if (d == AdmissionRule.Decision.ADMIT)
+			{
+				forget(en);
+				out = en.m_experiment;
+				break;
+			}
+			skipped.add(en);
+			if (d == AdmissionRule.Decision.SKIP)
+			{
+				en.m_skips++;
+				if (m_maxSkips > 0 && en.m_skips > m_maxSkips)
+				{
+					// Skipped for too long: let the running experiments drain
+					d = AdmissionRule.Decision.WAIT;
+				}
+			}
+			if (d == AdmissionRule.Decision.WAIT)
+			{
+				break;
+			}
+		}
+		// Put back the experiments we went past
+		m_entries.addAll(skipped);
+		return out;
+	}
+	
+	/**
+	 * Combines the decisions of a list of rules for an experiment
+	 * @param rules The rules
+	 * @param e The experiment
+	 * @param running The experiments currently running
+	 * @return <tt>WAIT</tt> if some rule says so, otherwise <tt>SKIP</tt>
+	 *   if some rule says so, otherwise <tt>ADMIT</tt>
+	 */
+	protected static AdmissionRule.Decision admit(List<AdmissionRule> rules, Experiment e, Collection<Experiment> running)
+	{
+		AdmissionRule.Decision out = AdmissionRule.Decision.ADMIT;
+		for (AdmissionRule rule : rules)
+		{
+			AdmissionRule.Decision d = rule.admit(e, running);
+			if (d == AdmissionRule.Decision.WAIT)
+			{
+				return d;
+			}
+			if (d == AdmissionRule.Decision.SKIP)
+			{
+				out = d;
+			}
+		}
+		return out;
+	}
+
+	@Override
+	public Experiment peek()
+	{
+		if (m_entries.isEmpty())
+		{
+			return null;
+		}
+		return m_entries.first().m_experiment;
+	}
+
+	@Override
+	public int size()
+	{
+		return m_entries.size();
+	}
+
+	@Override
+	public Iterator<Experiment> iterator()
+	{
+		final Iterator<Entry> it = m_entries.iterator();
+		return new Iterator<Experiment>()
+		{
+			/**
+			 * The last entry returned by the iterator
+			 */
+			protected Entry m_last = null;
+			
+			@Override
+			public boolean hasNext()
+			{
+				return it.hasNext();
+			}
+
+			@Override
+			public Experiment next()
+			{
+				m_last = it.next();
+				return m_last.m_experiment;
+			}
+
+			@Override
+			public void remove()
+			{
+				it.remove();
+				forget(m_last);
+			}
+		};
+	}
+	
+	/**
+	 * An experiment in the queue, along with its priority
+	 */
+	protected static class Entry implements Comparable<Entry>
+	{
+		protected final Experiment m_experiment;
+		
+		protected float m_priority;
+		
+		protected final long m_sequence;
+		
+		/**
+		 * The number of times the experiment was skipped by admission rules
+		 */
+		protected int m_skips = 0;
+		
+		public Entry(Experiment e, float priority, long sequence)
+		{
+			super();
+			m_experiment = e;
+			m_priority = priority;
+			m_sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry o)
+		{
+			// Highest priority first, then first arrived
+			int c = Float.compare(o.m_priority, m_priority);
+			if (c != 0)
+			{
+				return c;
+			}
+			if (m_sequence < o.m_sequence)
+			{
+				return -1;
+			}
+			return m_sequence > o.m_sequence ? 1 : 0;
+		}
+	}
+}
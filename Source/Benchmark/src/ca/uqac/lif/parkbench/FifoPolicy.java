@@ -0,0 +1,35 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+/**
+ * Scheduling policy that starts experiments in the order they were
+ * queued. This was the behaviour of the dispatcher before scheduling
+ * policies were introduced.
+ * 
+ * @author Sylvain Hallé
+ */
+public class FifoPolicy extends SchedulingPolicy
+{
+	@Override
+	public float getPriority(Experiment e)
+	{
+		// Same priority for everybody: ties are broken by order of arrival
+		return 0;
+	}
+}
@@ -0,0 +1,216 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.io.File;
+import java.lang.reflect.Method;
+
+/**
+ * Records the activity of the JVM with the Java Flight Recorder while an
+ * experiment runs, and saves the recording in a directory of artefacts,
+ * in a file named after the experiment's ID. The recording can then be
+ * opened with JDK Mission Control, or the <tt>jfr</tt> tool. The Flight
+ * Recorder is only available in Java 11 and later; since ParkBench must
+ * still run on older JVMs, it is accessed by reflection, and nothing is
+ * recorded when it is missing.
+ * <p>
+ * The Flight Recorder records the whole JVM. When many experiments run
+ * at the same time, their recordings overlap; the events of each
+ * experiment can be told apart by the name of their thread, which
+ * contains the experiment's ID while it runs.
+ * 
+ * @author Sylvain Hallé
+ */
+public class FlightRecorder
+{
+	/**
+	 * The settings profile used by experiments that don't specify one,
+	 * or null to record nothing by default
+	 */
+	protected static String s_defaultProfile = null;
+	
+	/**
+	 * The directory where recordings are saved
+	 */
+	protected static String s_directory = "artefacts";
+	
+	/**
+	 * The <tt>jdk.jfr.Recording</tt> in progress
+	 */
+	protected final Object m_recording;
+	
+	/**
+	 * The file where the recording is saved
+	 */
+	protected final File m_file;
+	
+	/**
+	 * Creates a handle on a recording in progress
+	 * @param recording The <tt>jdk.jfr.Recording</tt>
+	 * @param file The file where the recording is saved
+	 */
+	protected FlightRecorder(Object recording, File file)
+	{
+		super();
+		m_recording = recording;
+		m_file = file;
+	}
+	
+	/**
+	 * Sets the settings profile used by experiments that don't specify
+	 * one
+	 * @param profile The name of a profile of the JVM (<tt>default</tt> or
+	 *   <tt>profile</tt>), or the path to a <tt>.jfc</tt> file; null
+	 *   records nothing
+	 */
+	public static synchronized void setDefaultProfile(String profile)
+	{
+		s_defaultProfile = profile;
+	}
+	
+	/**
+	 * Gets the settings profile used by experiments that don't specify
+	 * one
+	 * @return The profile, or null if nothing is recorded by default
+	 */
+	public static synchronized String getDefaultProfile()
+	{
+		return s_defaultProfile;
+	}
+	
+	/**
+	 * Sets the directory where recordings are saved
+	 * @param directory The directory
+	 */
+	public static synchronized void setDirectory(String directory)
+	{
+		s_directory = directory;
+	}
+	
+	/**
+	 * Gets the directory where recordings are saved
+	 * @return The directory
+	 */
+	public static synchronized String getDirectory()
+	{
+		return s_directory;
+	}
+	
+	/**
+	 * Gets the file where the recording of an experiment is saved. The
+	 * directory of this file is created if needed.
+	 * @param e The experiment
+	 * @return The file
+	 */
+	public static File getFile(Experiment e)
+	{
+		File directory = new File(getDirectory());
+		directory.mkdirs();
+		return new File(directory, "experiment-" + e.getId() + ".jfr");
+	}
+	
+	/**
+	 * Starts recording for an experiment
+	 * @param e The experiment
+	 * @param profile The settings profile
+	 * @return A handle on the recording, or null if the Flight Recorder
+	 *   is not available or the profile cannot be found
+	 */
+	public static FlightRecorder start(Experiment e, String profile)
+	{
+		try
+		{
+			Class<?> config_class = Class.forName("jdk.jfr.Configuration");
+			Object config;
+			if (profile.endsWith(".jfc"))
+			{
+				config = config_class.getMethod("create", Class.forName("java.nio.file.Path")).invoke(null, toPath(new File(profile)));
+			}
+			else
+			{
+				config = config_class.getMethod("getConfiguration", String.class).invoke(null, profile);
+			}
+			Class<?> recording_class = Class.forName("jdk.jfr.Recording");
+			Object recording = recording_class.getConstructor(config_class).newInstance(config);
+			recording_class.getMethod("setName", String.class).invoke(recording, "ParkBench experiment " + e.getId());
+			recording_class.getMethod("start").invoke(recording);
+			return new FlightRecorder(recording, getFile(e));
+		}
+		catch (Exception ex)
+		{
+			// No Flight Recorder in this JVM, or bad profile
+			return null;
+		}
+	}
+	
+	/**
+	 * Stops the recording and saves it
+	 * @return The file where the recording is saved, or null if it could
+	 *   not be saved
+	 */
+	public File stop()
+	{
+		try
+		{
+			Class<?> recording_class = m_recording.getClass();
+			recording_class.getMethod("stop").invoke(m_recording);
+			recording_class.getMethod("dump", Class.forName("java.nio.file.Path")).invoke(m_recording, toPath(m_file));
+			return m_file;
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				m_recording.getClass().getMethod("close").invoke(m_recording);
+			}
+			catch (Exception e)
+			{
+				// Nothing else to do
+			}
+		}
+	}
+	
+	/**
+	 * Gets the option that makes a new JVM record itself into the file of
+	 * an experiment until it exits
+	 * @param e The experiment
+	 * @param profile The settings profile
+	 * @return The option
+	 */
+	public static String getJvmOption(Experiment e, String profile)
+	{
+		return "-XX:StartFlightRecording=settings=" + profile + ",filename=" + getFile(e).getAbsolutePath() + ",dumponexit=true";
+	}
+	
+	/**
+	 * Converts a file into a <tt>java.nio.file.Path</tt>, which only
+	 * exists in Java 7 and later
+	 * @param f The file
+	 * @return The path
+	 * @throws Exception If the conversion fails
+	 */
+	private static Object toPath(File f) throws Exception
+	{
+		Method m = File.class.getMethod("toPath");
+		return m.invoke(f);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonParser;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
+
+/**
+ * Entry point of the JVMs forked to run experiments. The name of the
+ * experiment's class is given as the only argument; the state of the
+ * experiment is read from the standard input. The experiment then runs
+ * once, and its new state is printed on the standard output. Anything
+ * the experiment itself prints there is sent to the standard error
+ * instead.
+ * @see Experiment#setForked(boolean)
+ * @author Sylvain Hallé
+ */
+public class ForkedExperiment
+{
+	/**
+	 * Exit code when the experiment cannot be created or read
+	 */
+	public static final int ERR_SETUP = 2;
+	
+	public static void main(String[] args)
+	{
+		PrintStream stdout = System.out;
+		System.setOut(System.err);
+		if (args.length != 1)
+		{
+			System.err.println("Usage: ForkedExperiment <class name>");
+			System.exit(ERR_SETUP);
+		}
+		Experiment experiment;
+		JsonMap state;
+		try
+		{
+			experiment = (Experiment) Class.forName(args[0]).getDeclaredConstructor().newInstance();
+			state = (JsonMap) new JsonParser().parse(readInput());
+		}
+		catch (ClassNotFoundException e)
+		{
+			setupFailed(e);
+			return;
+		}
+		catch (NoSuchMethodException e)
+		{
+			// The class has no constructor without arguments
+			setupFailed(e);
+			return;
+		}
+		catch (InstantiationException e)
+		{
+			// The class is abstract
+			setupFailed(e);
+			return;
+		}
+		catch (IllegalAccessException e)
+		{
+			setupFailed(e);
+			return;
+		}
+		catch (InvocationTargetException e)
+		{
+			// The constructor threw an exception
+			setupFailed(e.getCause());
+			return;
+		}
+		catch (JsonParseException e)
+		{
+			setupFailed(e);
+			return;
+		}
+		catch (IOException e)
+		{
+			setupFailed(e);
+			return;
+		}
+		catch (ClassCastException e)
+		{
+			// Not an experiment, or the state is not a map
+			setupFailed(e);
+			return;
+		}
+		experiment.deserializeState(state);
+		experiment.readWarmup(state);
+		// Only the results of this run are sent back
+		experiment.getResults().clear();
+		try
+		{
+			experiment.runOnce(experiment.getResults());
+		}
+		catch (OutOfMemoryError e)
+		{
+			experiment.setFailureMessage("Out of memory");
+			experiment.stopWithStatus(Experiment.Status.FAILED);
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+			experiment.setFailureMessage(e.toString());
+			experiment.stopWithStatus(Experiment.Status.FAILED);
+		}
+		stdout.print(experiment.serializeState().toString());
+		stdout.flush();
+		// Do not wait for threads the experiment may have left behind
+		System.exit(0);
+	}
+	
+	/**
+	 * Exits when the experiment cannot be created or read
+	 * @param t The cause of the failure
+	 */
+	protected static void setupFailed(Throwable t)
+	{
+		t.printStackTrace();
+		System.exit(ERR_SETUP);
+	}
+	
+	/**
+	 * Reads the standard input until its end
+	 * @return The contents of the standard input
+	 * @throws IOException If the input cannot be read
+	 */
+	protected static String readInput() throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+		StringBuilder out = new StringBuilder();
+		char[] buffer = new char[4096];
+		int read;
+		while ((read = reader.read(buffer)) != -1)
+		{
+			out.append(buffer, 0, read);
+		}
+		return out.toString();
+	}
+}
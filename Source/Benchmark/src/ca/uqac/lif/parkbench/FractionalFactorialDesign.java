@@ -0,0 +1,151 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Two-level fractional factorial design. Each axis only takes its first
+ * and its last value, its <em>low</em> and <em>high</em> levels. With
+ * <i>k</i> axes, a full two-level design has 2<sup><i>k</i></sup>
+ * points; a 2<sup><i>k</i>-<i>p</i></sup> design only has
+ * 2<sup><i>k</i>-<i>p</i></sup>. The first <i>k</i>-<i>p</i> axes take
+ * every combination of levels; the level of each of the <i>p</i>
+ * remaining axes is the product of the levels of a group of the first
+ * axes (taking low as -1 and high as +1), groups being taken from the
+ * largest down. This keeps main effects apart from each other and from
+ * interactions between two parameters, as long as <i>p</i> is small
+ * enough.
+ * 
+ * @author Sylvain Hallé
+ */
+public class FractionalFactorialDesign extends SamplingDesign
+{
+	/**
+	 * The number of axes whose level is derived from the others
+	 */
+	protected final int m_fraction;
+	
+	/**
+	 * Creates a new design
+	 * @param p The number of axes whose level is derived from the others;
+	 *   each one halves the number of points. Set to 0 for a full
+	 *   two-level design. A value too large for the number of axes is
+	 *   reduced to the largest possible one.
+	 */
+	public FractionalFactorialDesign(int p)
+	{
+		super();
+		m_fraction = Math.max(0, p);
+	}
+	
+	@Override
+	public Iterator<int[]> iterator(final int[] sizes)
+	{
+		final int k = sizes.length;
+		// At least one axis must take every level
+		int p = Math.min(m_fraction, Math.max(0, k - 1));
+		// Not every fraction is possible: at least one group of two or
+		// more of the first axes is needed for each derived axis
+		while (p > 0 && (1 << (k - p)) - (k - p) - 1 < p)
+		{
+			p--;
+		}
+		final int base = k - p;
+		final List<Integer> generators = getGenerators(base, p);
+		return new Iterator<int[]>()
+		{
+			/**
+			 * The number of the next point
+			 */
+			int m_run = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return m_run < (1 << base);
+			}
+
+			@Override
+			public int[] next()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				int[] point = new int[k];
+				for (int i = 0; i < base; i++)
+				{
+					point[i] = level((m_run >> i) & 1, sizes[i]);
+				}
+				for (int j = 0; j < generators.size(); j++)
+				{
+					// The product of levels -1 and +1 is +1 when an even
+					// number of them are low
+					int low = Integer.bitCount(~m_run & generators.get(j));
+					point[base + j] = level(low % 2 == 0 ? 1 : 0, sizes[base + j]);
+				}
+				m_run++;
+				return point;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * Gets the index of a level on an axis
+	 * @param high 1 for the high level, 0 for the low level
+	 * @param size The number of values of the axis
+	 * @return The index
+	 */
+	protected static int level(int high, int size)
+	{
+		return high == 1 ? size - 1 : 0;
+	}
+	
+	/**
+	 * Chooses the groups of axes whose product gives the level of the
+	 * derived axes, from the largest groups down
+	 * @param base The number of axes that take every combination of levels
+	 * @param p The number of derived axes
+	 * @return The groups, each given as a bit mask over the first axes
+	 */
+	protected static List<Integer> getGenerators(int base, int p)
+	{
+		List<Integer> out = new ArrayList<Integer>(p);
+		for (int size = base; size >= 2 && out.size() < p; size--)
+		{
+			for (int mask = (1 << base) - 1; mask > 0 && out.size() < p; mask--)
+			{
+				if (Integer.bitCount(mask) == size)
+				{
+					out.add(mask);
+				}
+			}
+		}
+		return out;
+	}
+}
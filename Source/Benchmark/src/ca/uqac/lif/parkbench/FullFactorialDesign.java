@@ -0,0 +1,77 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Design that tries every combination of the values of the axes, the
+ * last axis varying the fastest, as with nested loops. This is the
+ * default design of a {@link Sweep}.
+ * 
+ * @author Sylvain Hallé
+ */
+public class FullFactorialDesign extends SamplingDesign
+{
+	@Override
+	public Iterator<int[]> iterator(final int[] sizes)
+	{
+		return new Iterator<int[]>()
+		{
+			/**
+			 * The next point, or null if all points have been enumerated
+			 */
+			int[] m_next = new int[sizes.length];
+
+			@Override
+			public boolean hasNext()
+			{
+				return m_next != null;
+			}
+
+			@Override
+			public int[] next()
+			{
+				if (m_next == null)
+				{
+					throw new NoSuchElementException();
+				}
+				int[] out = m_next.clone();
+				// Move to the next point, like an odometer
+				for (int i = m_next.length - 1; i >= 0; i--)
+				{
+					m_next[i]++;
+					if (m_next[i] < sizes[i])
+					{
+						return out;
+					}
+					m_next[i] = 0;
+				}
+				m_next = null;
+				return out;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,118 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import ca.uqac.lif.jerrydog.CallbackResponse;
+import ca.uqac.lif.jerrydog.RequestCallback;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Sends the Flight Recorder file of an experiment, whose ID is given by
+ * parameter <tt>id</tt>. See {@link FlightRecorder}. The file is always
+ * looked for in the directory of recordings, whatever path is stored in
+ * the state of the experiment, so that state files cannot be used to
+ * read arbitrary files.
+ * 
+ * @author Sylvain Hallé
+ */
+public class GetRecording extends BenchmarkCallback
+{
+	public GetRecording(Benchmark b)
+	{
+		super(RequestCallback.Method.GET, "/recording", b);
+	}
+
+	@Override
+	public CallbackResponse process(HttpExchange t)
+	{
+		CallbackResponse response = new CallbackResponse(t);
+		Map<String,String> params = getParameters(t);
+		if (!params.containsKey("id"))
+		{
+			// Bad request: should always contain an ID
+			response.setCode(CallbackResponse.HTTP_BAD_REQUEST);
+			return response;
+		}
+		Experiment e;
+		try
+		{
+			e = m_benchmark.getExperiment(Integer.parseInt(params.get("id")));
+		}
+		catch (NumberFormatException ex)
+		{
+			response.setCode(CallbackResponse.HTTP_BAD_REQUEST);
+			return response;
+		}
+		if (e == null || e.getRecordingPath() == null)
+		{
+			response.setCode(CallbackResponse.HTTP_NOT_FOUND);
+			return response;
+		}
+		File file = FlightRecorder.getFile(e);
+		if (!file.isFile())
+		{
+			response.setCode(CallbackResponse.HTTP_NOT_FOUND);
+			return response;
+		}
+		try
+		{
+			response.setContents(readBytes(file));
+		}
+		catch (IOException ex)
+		{
+			response.setCode(CallbackResponse.HTTP_NOT_FOUND);
+			return response;
+		}
+		// Tell the browser to download the file rather than display it
+		response.setAttachment(file.getName());
+		return response;
+	}
+	
+	/**
+	 * Reads the contents of a file
+	 * @param file The file
+	 * @return The contents
+	 * @throws IOException If the file cannot be read
+	 */
+	protected static byte[] readBytes(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Design that picks points from a Halton sequence. Such a sequence fills
+ * the parameter space evenly, and every prefix of it does as well: it
+ * can be stopped after any number of points. Points that fall on the
+ * same combination of values are only tried once, so axes should have
+ * many more values than there are points.
+ * 
+ * @author Sylvain Hallé
+ */
+public class HaltonDesign extends SamplingDesign
+{
+	/**
+	 * The number of points
+	 */
+	protected final int m_points;
+	
+	/**
+	 * Creates a new design
+	 * @param points The number of points
+	 */
+	public HaltonDesign(int points)
+	{
+		super();
+		m_points = points;
+	}
+	
+	@Override
+	public Iterator<int[]> iterator(final int[] sizes)
+	{
+		final int[] bases = getPrimes(sizes.length);
+		return new Iterator<int[]>()
+		{
+			/**
+			 * The position of the next point in the sequence
+			 */
+			int m_index = 1;
+			
+			/**
+			 * The number of points returned so far
+			 */
+			int m_returned = 0;
+			
+			/**
+			 * The next point, or null if it must be computed
+			 */
+			int[] m_next = null;
+			
+			/**
+			 * The combinations already returned
+			 */
+			Set<List<Integer>> m_seen = new HashSet<List<Integer>>();
+
+			@Override
+			public boolean hasNext()
+			{
+				// Give up after a while if points keep repeating
+				while (m_next == null && m_returned < m_points && m_index <= m_points * 10)
+				{
+					int[] point = new int[sizes.length];
+					Integer[] key = new Integer[sizes.length];
+					for (int i = 0; i < sizes.length; i++)
+					{
+						point[i] = toIndex(radicalInverse(m_index, bases[i]), sizes[i]);
+						key[i] = point[i];
+					}
+					m_index++;
+					if (m_seen.add(Arrays.asList(key)))
+					{
+						m_next = point;
+					}
+				}
+				return m_next != null;
+			}
+
+			@Override
+			public int[] next()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				int[] out = m_next;
+				m_next = null;
+				m_returned++;
+				return out;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * Computes the radical inverse of a number, i.e. the number obtained
+	 * by mirroring its digits around the decimal point
+	 * @param n The number
+	 * @param base The base in which digits are taken
+	 * @return A number between 0 and 1
+	 */
+	protected static double radicalInverse(int n, int base)
+	{
+		double out = 0;
+		double scale = 1d / base;
+		while (n > 0)
+		{
+			out += (n % base) * scale;
+			n /= base;
+			scale /= base;
+		}
+		return out;
+	}
+	
+	/**
+	 * Gets the first prime numbers
+	 * @param n The number of primes
+	 * @return The primes
+	 */
+	protected static int[] getPrimes(int n)
+	{
+		int[] primes = new int[n];
+		int found = 0;
+		for (int candidate = 2; found < n; candidate++)
+		{
+			boolean prime = true;
+			for (int i = 0; i < found && primes[i] * primes[i] <= candidate; i++)
+			{
+				if (candidate % primes[i] == 0)
+				{
+					prime = false;
+					break;
+				}
+			}
+			if (prime)
+			{
+				primes[found++] = candidate;
+			}
+		}
+		return primes;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.Collection;
+
+/**
+ * Admission rule keeping experiments that run inside the JVM from
+ * exhausting its heap. Each experiment estimates its heap footprint with
+ * {@link Experiment#estimateHeapFootprint(Parameters)}. An experiment is
+ * admitted only if its footprint, added to those of the running
+ * experiments, fits in a budget, and if the heap currently has enough
+ * room for it according to the {@link MemoryMXBean}. Otherwise, it is
+ * skipped until some running experiments finish. An experiment is always
+ * admitted when no other experiment with a footprint is running, so
+ * that it gets a chance to run.
+ * 
+ * @author Sylvain Hallé
+ */
+public class HeapBudgetRule implements AdmissionRule
+{
+	/**
+	 * The heap budget, in bytes
+	 */
+	protected volatile long m_budget;
+	
+	/**
+	 * Gives the current usage of the heap
+	 */
+	protected final MemoryMXBean m_memory;
+	
+	/**
+	 * Creates a new heap budget rule
+	 * @param budget The budget, in bytes
+	 */
+	public HeapBudgetRule(long budget)
+	{
+		super();
+		m_budget = budget;
+		m_memory = ManagementFactory.getMemoryMXBean();
+	}
+	
+	/**
+	 * Sets the heap budget
+	 * @param budget The budget, in bytes
+	 */
+	public void setBudget(long budget)
+	{
+		m_budget = budget;
+	}
+	
+	/**
+	 * Gets the heap budget
+	 * @return The budget, in bytes
+	 */
+	public long getBudget()
+	{
+		return m_budget;
+	}
+
+	@Override
+	public Decision admit(Experiment e, Collection<Experiment> running)
+	{
+		long footprint = getFootprint(e);
+		if (footprint <= 0)
+		{
+			return Decision.ADMIT;
+		}
+		long reserved = 0;
+		for (Experiment r : running)
+		{
+			reserved += Math.max(0, getFootprint(r));
+		}
+		if (reserved == 0)
+		{
+			return Decision.ADMIT;
+		}
+		if (reserved + footprint > m_budget)
+		{
+			return Decision.SKIP;
+		}
+		// Safety check against the actual state of the heap
+		MemoryUsage heap = m_memory.getHeapMemoryUsage();
+		if (heap.getMax() > 0 && heap.getMax() - heap.getUsed() < footprint)
+		{
+			return Decision.SKIP;
+		}
+		return Decision.ADMIT;
+	}
+	
+	/**
+	 * Gets the footprint of an experiment on the heap of this JVM
+	 * @param e The experiment
+	 * @return The footprint, in bytes; 0 if the experiment runs in a JVM
+	 *   of its own
+	 */
+	protected static long getFootprint(Experiment e)
+	{
+		if (e.isForked())
+		{
+			return 0;
+		}
+		return e.estimateHeapFootprint(e.getParameters());
+	}
+}
@@ -0,0 +1,277 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ca.uqac.lif.json.JsonElement;
+import ca.uqac.lif.json.JsonList;
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonNumber;
+import ca.uqac.lif.json.JsonParser;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
+import ca.uqac.lif.util.FileReadWrite;
+
+/**
+ * Experiment whose measurement is done by a
+ * <a href="http://openjdk.java.net/projects/code-tools/jmh/">JMH</a>
+ * benchmark. The experiment runs the self-contained JAR produced by a
+ * JMH project, passing each of its parameters as a <tt>@Param</tt>
+ * value (the <tt>-p</tt> option). The scores found in the JSON report
+ * written by JMH then become the experiment's results:
+ * <ul>
+ * <li><tt>score</tt>: the score of the benchmark</li>
+ * <li><tt>score.error</tt>: the half-width of its confidence interval</li>
+ * <li><tt>score.ci-low</tt> and <tt>score.ci-high</tt>: the bounds of
+ *   that interval</li>
+ * <li><tt>score.p50</tt>, <tt>score.p90</tt>, etc.: its percentiles</li>
+ * <li><tt>score.unit</tt>: its unit (e.g. <tt>ops/s</tt>)</li>
+ * </ul>
+ * If the JAR runs more than one benchmark method, these names are
+ * prefixed with the name of the method (e.g. <tt>sort.score</tt>).
+ * Secondary metrics (such as those of JMH's profilers) are added the
+ * same way, under their own name.
+ * @author Sylvain Hallé
+ */
+public abstract class JmhExperiment extends CommandExperiment
+{
+	/**
+	 * The path to the JAR containing the JMH benchmarks
+	 */
+	protected String m_jarFile;
+	
+	/**
+	 * The regular expression selecting the benchmarks to run
+	 */
+	protected String m_benchmark;
+	
+	/**
+	 * Arguments passed to the JVM that runs JMH
+	 */
+	protected final List<String> m_jvmArguments = new ArrayList<String>();
+	
+	/**
+	 * Other options passed to JMH (e.g. <tt>-f 1 -wi 5</tt>)
+	 */
+	protected final List<String> m_jmhOptions = new ArrayList<String>();
+	
+	/**
+	 * The file where JMH writes the results of the current run
+	 */
+	protected File m_reportFile = null;
+	
+	/**
+	 * Creates a new JMH experiment
+	 * @param test_name The name of the experiment
+	 * @param jar_file The path to the JAR containing the JMH benchmarks
+	 * @param benchmark The regular expression selecting the benchmarks
+	 *   to run in this JAR
+	 */
+	public JmhExperiment(String test_name, String jar_file, String benchmark)
+	{
+		super(test_name);
+		m_jarFile = jar_file;
+		m_benchmark = benchmark;
+	}
+	
+	/**
+	 * Sets the arguments passed to the JVM that runs JMH
+	 * @param arguments The arguments (e.g. <tt>-Xmx2g</tt>)
+	 * @return This experiment
+	 */
+	public JmhExperiment setJvmArguments(String ... arguments)
+	{
+		m_jvmArguments.clear();
+		m_jvmArguments.addAll(Arrays.asList(arguments));
+		return this;
+	}
+	
+	/**
+	 * Sets other options passed to JMH
+	 * @param options The options (e.g. <tt>"-f", "1", "-wi", "5"</tt>)
+	 * @return This experiment
+	 */
+	public JmhExperiment setJmhOptions(String ... options)
+	{
+		m_jmhOptions.clear();
+		m_jmhOptions.addAll(Arrays.asList(options));
+		return this;
+	}
+	
+	/**
+	 * Determines if a parameter of this experiment is passed to the
+	 * benchmark. By default, all of them are; override this method if
+	 * some parameters do not correspond to a <tt>@Param</tt> field.
+	 * @param name The name of the parameter
+	 * @return true if the parameter is passed to the benchmark
+	 */
+	protected boolean isBenchmarkParameter(String name)
+	{
+		return true;
+	}
+	
+	@Override
+	protected void createCommand(Parameters parameters, List<String> command)
+	{
+		try
+		{
+			m_reportFile = File.createTempFile("parkbench-jmh-", ".json");
+			// In case the command is killed before the report is read
+			m_reportFile.deleteOnExit();
+		}
+		catch (IOException e)
+		{
+			m_reportFile = new File("jmh-" + getId() + ".json");
+		}
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(m_jvmArguments);
+		command.add("-jar");
+		command.add(m_jarFile);
+		command.add(m_benchmark);
+		for (String name : parameters.keySet())
+		{
+			if (isBenchmarkParameter(name))
+			{
+				command.add("-p");
+				command.add(name + "=" + parameters.get(name));
+			}
+		}
+		command.addAll(m_jmhOptions);
+		command.add("-rf");
+		command.add("json");
+		command.add("-rff");
+		command.add(m_reportFile.getAbsolutePath());
+	}
+	
+	@Override
+	protected void readOutput(String output, Parameters results)
+	{
+		File report = m_reportFile;
+		m_reportFile = null;
+		if (report == null || !report.exists())
+		{
+			setFailureMessage("JMH produced no report");
+			stopWithStatus(Status.FAILED);
+			return;
+		}
+		JsonList runs;
+		try
+		{
+			JsonParser parser = new JsonParser();
+			runs = (JsonList) parser.parse(FileReadWrite.readFile(report.getPath()));
+		}
+		catch (IOException e)
+		{
+			setFailureMessage("Cannot read JMH report");
+			stopWithStatus(Status.FAILED);
+			return;
+		}
+		catch (JsonParseException e)
+		{
+			setFailureMessage("Cannot parse JMH report");
+			stopWithStatus(Status.FAILED);
+			return;
+		}
+		finally
+		{
+			report.delete();
+		}
+		if (runs == null || runs.isEmpty())
+		{
+			setFailureMessage("JMH ran no benchmark");
+			stopWithStatus(Status.FAILED);
+			return;
+		}
+		for (JsonElement el : runs)
+		{
+			JsonMap run = (JsonMap) el;
+			String prefix = "";
+			if (runs.size() > 1)
+			{
+				String method = run.getString("benchmark");
+				prefix = method.substring(method.lastIndexOf('.') + 1) + ".";
+			}
+			readMetric((JsonMap) run.get("primaryMetric"), prefix + "score", results);
+			JsonMap secondary = (JsonMap) run.get("secondaryMetrics");
+			if (secondary != null)
+			{
+				for (String name : secondary.keySet())
+				{
+					readMetric((JsonMap) secondary.get(name), prefix + name, results);
+				}
+			}
+		}
+		stopWithStatus(Status.DONE);
+	}
+	
+	/**
+	 * Copies a metric of a JMH report into the results
+	 * @param metric The metric, as found in the report
+	 * @param key The name of the metric in the results
+	 * @param results The results
+	 */
+	protected static void readMetric(JsonMap metric, String key, Parameters results)
+	{
+		if (metric == null)
+		{
+			return;
+		}
+		putNumber(metric.get("score"), key, results);
+		putNumber(metric.get("scoreError"), key + ".error", results);
+		JsonElement confidence = metric.get("scoreConfidence");
+		if (confidence instanceof JsonList && ((JsonList) confidence).size() == 2)
+		{
+			putNumber(((JsonList) confidence).get(0), key + ".ci-low", results);
+			putNumber(((JsonList) confidence).get(1), key + ".ci-high", results);
+		}
+		JsonElement percentiles = metric.get("scorePercentiles");
+		if (percentiles instanceof JsonMap)
+		{
+			JsonMap map = (JsonMap) percentiles;
+			for (String percentile : map.keySet())
+			{
+				// JMH writes percentiles as "50.0", "99.9", etc.
+				String name = percentile.endsWith(".0") ? percentile.substring(0, percentile.length() - 2) : percentile;
+				putNumber(map.get(percentile), key + ".p" + name, results);
+			}
+		}
+		if (metric.containsKey("scoreUnit"))
+		{
+			results.put(key + ".unit", metric.getString("scoreUnit"));
+		}
+	}
+	
+	/**
+	 * Puts a number in the results. JMH writes <tt>"NaN"</tt> as a
+	 * string for values it cannot compute; these are skipped.
+	 * @param value The value
+	 * @param key The name of the result
+	 * @param results The results
+	 */
+	private static void putNumber(JsonElement value, String key, Parameters results)
+	{
+		if (value instanceof JsonNumber)
+		{
+			results.put(key, ((JsonNumber) value).numberValue());
+		}
+	}
+}
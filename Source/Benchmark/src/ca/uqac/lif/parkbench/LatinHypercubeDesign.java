@@ -0,0 +1,113 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Design that picks a fixed number of points so that, on every axis, each
+ * of as many equal slices of the values is tried exactly once. This
+ * covers the range of every parameter evenly with few experiments, no
+ * matter how many axes there are. Points that fall on the same
+ * combination of values are only tried once, so axes should have many
+ * more values than there are points; ranges can have thousands of
+ * values at no cost.
+ * 
+ * @author Sylvain Hallé
+ */
+public class LatinHypercubeDesign extends SamplingDesign
+{
+	/**
+	 * The number of points
+	 */
+	protected final int m_points;
+	
+	/**
+	 * The seed of the random generator
+	 */
+	protected final long m_seed;
+	
+	/**
+	 * Creates a new design
+	 * @param points The number of points
+	 * @param seed The seed of the random generator; the same seed gives
+	 *   the same points
+	 */
+	public LatinHypercubeDesign(int points, long seed)
+	{
+		super();
+		m_points = points;
+		m_seed = seed;
+	}
+	
+	/**
+	 * Creates a new design with a random seed
+	 * @param points The number of points
+	 */
+	public LatinHypercubeDesign(int points)
+	{
+		this(points, System.nanoTime());
+	}
+	
+	@Override
+	public Iterator<int[]> iterator(int[] sizes)
+	{
+		Random random = new Random(m_seed);
+		// The slice each point falls into, on each axis
+		int[][] slices = new int[sizes.length][];
+		for (int i = 0; i < sizes.length; i++)
+		{
+			List<Integer> order = new ArrayList<Integer>(m_points);
+			for (int j = 0; j < m_points; j++)
+			{
+				order.add(j);
+			}
+			Collections.shuffle(order, random);
+			slices[i] = new int[m_points];
+			for (int j = 0; j < m_points; j++)
+			{
+				slices[i][j] = order.get(j);
+			}
+		}
+		List<int[]> points = new ArrayList<int[]>(m_points);
+		Set<List<Integer>> seen = new HashSet<List<Integer>>();
+		for (int j = 0; j < m_points; j++)
+		{
+			int[] point = new int[sizes.length];
+			Integer[] key = new Integer[sizes.length];
+			for (int i = 0; i < sizes.length; i++)
+			{
+				// A random position inside the slice
+				point[i] = toIndex((slices[i][j] + random.nextDouble()) / m_points, sizes[i]);
+				key[i] = point[i];
+			}
+			if (seen.add(Arrays.asList(key)))
+			{
+				points.add(point);
+			}
+		}
+		return points.iterator();
+	}
+}
@@ -0,0 +1,343 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Scheduling policy that starts the experiments with the longest expected
+ * running time first (the "longest processing time" rule). On a machine
+ * with many threads, this avoids that a long experiment starts last and
+ * leaves all the other threads idle until it finishes.
+ * <p>
+ * The running time of an experiment is estimated as follows:
+ * <ol>
+ * <li>If the experiment gives its own estimate through
+ *   {@link Experiment#estimateCost(Parameters)}, this value is used.</li>
+ * <li>Otherwise, if experiments with the same name have already finished,
+ *   their durations are used to fit a model of the form
+ *   <i>t</i> = <i>a</i> &times; <i>p</i><sub>1</sub><sup><i>b</i><sub>1</sub></sup>
+ *   &times; &hellip; &times; <i>p</i><sub><i>n</i></sub><sup><i>b</i><sub><i>n</i></sub></sup>,
+ *   where the <i>p</i><sub><i>i</i></sub> are the experiment's numerical
+ *   input parameters.</li>
+ * <li>As long as there is not enough data to fit the exponents, they are
+ *   assumed to be 1; that is, an experiment is assumed to take time
+ *   proportional to the product of its numerical parameters.</li>
+ * <li>If no experiment with the same name has finished yet, the
+ *   experiment is given the mean duration of all the experiments that
+ *   have finished so far, so that it is compared to the others in the
+ *   same unit. Before any experiment finishes, there is no duration to
+ *   go by, and experiments are ordered by the product of their
+ *   numerical parameters.</li>
+ * </ol>
+ * Since the model improves as experiments finish, the priorities of
+ * queued experiments with some name are recomputed each time the number
+ * of finished experiments with that name reaches a power of two.
+ * 
+ * @author Sylvain Hallé
+ */
+public class LongestFirstPolicy extends SchedulingPolicy
+{
+	/**
+	 * The cost models, for each experiment name
+	 */
+	protected final Map<String,CostModel> m_models;
+	
+	/**
+	 * The sum of the durations of all the experiments that have
+	 * finished, in milliseconds
+	 */
+	protected double m_sumMillis = 0;
+	
+	/**
+	 * The number of finished experiments counted in {@link #m_sumMillis}
+	 */
+	protected int m_numSamples = 0;
+	
+	/**
+	 * Creates a new longest-first scheduling policy
+	 */
+	public LongestFirstPolicy()
+	{
+		super();
+		m_models = new HashMap<String,CostModel>();
+	}
+	
+	@Override
+	public float getPriority(Experiment e)
+	{
+		return (float) estimateCost(e);
+	}
+	
+	/**
+	 * Estimates the running time of an experiment
+	 * @param e The experiment
+	 * @return The estimated time, in milliseconds, or in arbitrary units
+	 *   if no experiment has finished yet
+	 */
+	public double estimateCost(Experiment e)
+	{
+		Parameters input = e.getParameters();
+		float hint = e.estimateCost(input);
+		if (hint >= 0)
+		{
+			return hint;
+		}
+		CostModel model = m_models.get(e.getName());
+		if (model != null)
+		{
+			return model.estimate(input);
+		}
+		if (m_numSamples > 0)
+		{
+			return m_sumMillis / m_numSamples;
+		}
+		return Math.exp(CostModel.sumOfLogs(input));
+	}
+	
+	@Override
+	public boolean experimentFinished(Experiment e, long duration)
+	{
+		Parameters input = e.getParameters();
+		if (e.estimateCost(input) >= 0)
+		{
+			// The experiment gives its own estimates; no need to learn
+			return false;
+		}
+		CostModel model = m_models.get(e.getName());
+		if (model == null)
+		{
+			model = new CostModel(input.keySet());
+			m_models.put(e.getName(), model);
+		}
+		double millis = duration / 1000000d;
+		model.add(input, millis);
+		m_sumMillis += millis;
+		m_numSamples++;
+		int n = model.m_numSamples;
+		// Reorder the queue when n is a power of two
+		return (n & (n - 1)) == 0;
+	}
+	
+	/**
+	 * Fits a power-law model of the running time of an experiment from
+	 * past durations, by least squares in log-log space
+	 */
+	protected static class CostModel
+	{
+		/**
+		 * The names of the parameters used as the model's variables
+		 */
+		protected final String[] m_names;
+		
+		/**
+		 * The matrix <i>X</i><sup>T</sup><i>X</i> of the least squares
+		 * problem, updated with each new sample
+		 */
+		protected final double[][] m_xtx;
+		
+		/**
+		 * The vector <i>X</i><sup>T</sup><i>y</i> of the least squares
+		 * problem, updated with each new sample
+		 */
+		protected final double[] m_xty;
+		
+		/**
+		 * The sum of the differences between the observed log-duration and
+		 * the sum of the log-parameters, used when the exponents cannot be
+		 * fitted
+		 */
+		protected double m_sumResiduals = 0;
+		
+		/**
+		 * The number of samples added to the model
+		 */
+		protected int m_numSamples = 0;
+		
+		/**
+		 * The coefficients of the model (intercept first), or null if
+		 * they must be computed again
+		 */
+		protected double[] m_coefficients = null;
+		
+		public CostModel(Set<String> names)
+		{
+			super();
+			m_names = new TreeSet<String>(names).toArray(new String[0]);
+			int dim = m_names.length + 1;
+			m_xtx = new double[dim][dim];
+			m_xty = new double[dim];
+		}
+		
+		/**
+		 * Adds a sample to the model
+		 * @param input The experiment's input parameters
+		 * @param millis The experiment's duration, in milliseconds
+		 */
+		public void add(Parameters input, double millis)
+		{
+			double[] x = getVector(input);
+			double y = Math.log(Math.max(millis, 1e-3));
+			for (int i = 0; i < x.length; i++)
+			{
+				for (int j = 0; j < x.length; j++)
+				{
+					m_xtx[i][j] += x[i] * x[j];
+				}
+				m_xty[i] += x[i] * y;
+			}
+			m_sumResiduals += y - sumOfLogs(input);
+			m_numSamples++;
+			m_coefficients = null;
+		}
+		
+		/**
+		 * Estimates the duration of an experiment
+		 * @param input The experiment's input parameters
+		 * @return The estimated duration, in milliseconds
+		 */
+		public double estimate(Parameters input)
+		{
+			if (m_coefficients == null)
+			{
+				m_coefficients = solve();
+			}
+			if (m_coefficients == null)
+			{
+				// Not enough data: assume all exponents are 1
+				return Math.exp(m_sumResiduals / m_numSamples + sumOfLogs(input));
+			}
+			double[] x = getVector(input);
+			double y = 0;
+			for (int i = 0; i < x.length; i++)
+			{
+				y += m_coefficients[i] * x[i];
+			}
+			return Math.exp(y);
+		}
+		
+		/**
+		 * Solves the least squares problem by Gaussian elimination
+		 * @return The coefficients, or null if there are not enough
+		 *   samples or if the system is singular
+		 */
+		protected double[] solve()
+		{
+			int dim = m_xty.length;
+			if (m_numSamples < dim + 1)
+			{
+				return null;
+			}
+			double[][] a = new double[dim][dim + 1];
+			for (int i = 0; i < dim; i++)
+			{
+				System.arraycopy(m_xtx[i], 0, a[i], 0, dim);
+				a[i][dim] = m_xty[i];
+			}
+			for (int col = 0; col < dim; col++)
+			{
+				int pivot = col;
+				for (int row = col + 1; row < dim; row++)
+				{
+					if (Math.abs(a[row][col]) > Math.abs(a[pivot][col]))
+					{
+						pivot = row;
+					}
+				}
+				if (Math.abs(a[pivot][col]) < 1e-9)
+				{
+					// Some parameter never varied: cannot fit its exponent
+					return null;
+				}
+				double[] tmp = a[col];
+				a[col] = a[pivot];
+				a[pivot] = tmp;
+				for (int row = 0; row < dim; row++)
+				{
+					if (row != col)
+					{
+						double f = a[row][col] / a[col][col];
+						for (int k = col; k <= dim; k++)
+						{
+							a[row][k] -= f * a[col][k];
+						}
+					}
+				}
+			}
+			double[] out = new double[dim];
+			for (int i = 0; i < dim; i++)
+			{
+				out[i] = a[i][dim] / a[i][i];
+			}
+			return out;
+		}
+		
+		/**
+		 * Gets the vector of variables for a set of parameters
+		 * @param input The parameters
+		 * @return The vector, starting with 1 for the intercept
+		 */
+		protected double[] getVector(Parameters input)
+		{
+			double[] x = new double[m_names.length + 1];
+			x[0] = 1;
+			for (int i = 0; i < m_names.length; i++)
+			{
+				x[i + 1] = logOf(input.get(m_names[i]));
+			}
+			return x;
+		}
+		
+		/**
+		 * Computes the sum of the logarithms of the numerical values in
+		 * a set of parameters
+		 * @param input The parameters
+		 * @return The sum
+		 */
+		protected static double sumOfLogs(Parameters input)
+		{
+			double out = 0;
+			for (Object o : input.values())
+			{
+				out += logOf(o);
+			}
+			return out;
+		}
+		
+		/**
+		 * Computes the logarithm of a parameter value
+		 * @param o The value
+		 * @return Its logarithm if it is a number greater than 1, 0 otherwise
+		 */
+		protected static double logOf(Object o)
+		{
+			if (o instanceof Number)
+			{
+				double v = ((Number) o).doubleValue();
+				if (v > 1)
+				{
+					return Math.log(v);
+				}
+			}
+			return 0;
+		}
+	}
+}
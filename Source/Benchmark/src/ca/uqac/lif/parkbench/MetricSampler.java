@@ -0,0 +1,246 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Periodically records metrics of the experiments of a
+ * {@link ThreadDispatcher} while they are running. Each metric becomes
+ * a {@link TimeSeries} of the experiment (see
+ * {@link Experiment#getTimeSeries(String)}):
+ * <ul>
+ * <li>{@link #HEAP}: the heap used by the JVM, in MB</li>
+ * <li>{@link #RSS}: the resident set size of the JVM, in MB</li>
+ * <li>{@link #CPU}: the CPU utilization of the JVM, in cores (1 means
+ *   one core fully used)</li>
+ * <li>{@link #CHILD_RSS} and {@link #CHILD_CPU}: the same for the
+ *   process started by the experiment, if any (see
+ *   {@link Experiment#getProcessId()})</li>
+ * </ul>
+ * The JVM's metrics are shared by all the experiments running at the
+ * same time. Except for the heap, metrics are read from <tt>/proc</tt>,
+ * and are therefore only available on Linux.
+ * 
+ * @author Sylvain Hallé
+ */
+public class MetricSampler implements Runnable
+{
+	/**
+	 * Name of the series for the heap used by the JVM
+	 */
+	public static final String HEAP = "heap";
+	
+	/**
+	 * Name of the series for the resident set size of the JVM
+	 */
+	public static final String RSS = "rss";
+	
+	/**
+	 * Name of the series for the CPU utilization of the JVM
+	 */
+	public static final String CPU = "cpu";
+	
+	/**
+	 * Name of the series for the resident set size of the experiment's
+	 * process
+	 */
+	public static final String CHILD_RSS = "child-rss";
+	
+	/**
+	 * Name of the series for the CPU utilization of the experiment's
+	 * process
+	 */
+	public static final String CHILD_CPU = "child-cpu";
+	
+	/**
+	 * The dispatcher whose experiments are sampled
+	 */
+	protected final ThreadDispatcher m_dispatcher;
+	
+	/**
+	 * Gives the current usage of the heap
+	 */
+	protected final MemoryMXBean m_memory;
+	
+	/**
+	 * The interval between samples, in milliseconds; 0 or less disables
+	 * the sampling
+	 */
+	protected long m_interval = 0;
+	
+	/**
+	 * Whether the sampler must stop
+	 */
+	protected boolean m_stop = false;
+	
+	/**
+	 * The CPU time and time of the previous sample of each process,
+	 * from which the CPU utilization is computed
+	 */
+	protected final Map<String,long[]> m_previous = new HashMap<String,long[]>();
+	
+	/**
+	 * Creates a new sampler
+	 * @param dispatcher The dispatcher whose experiments are sampled
+	 */
+	public MetricSampler(ThreadDispatcher dispatcher)
+	{
+		super();
+		m_dispatcher = dispatcher;
+		m_memory = ManagementFactory.getMemoryMXBean();
+	}
+	
+	/**
+	 * Sets the interval between samples
+	 * @param interval The interval, in milliseconds; 0 or less disables
+	 *   the sampling
+	 */
+	public synchronized void setInterval(long interval)
+	{
+		m_interval = interval;
+		notifyAll();
+	}
+	
+	/**
+	 * Gets the interval between samples
+	 * @return The interval, in milliseconds; 0 if sampling is disabled
+	 */
+	public synchronized long getInterval()
+	{
+		return Math.max(0, m_interval);
+	}
+	
+	/**
+	 * Tells the sampler to stop
+	 */
+	public synchronized void stop()
+	{
+		m_stop = true;
+		notifyAll();
+	}
+	
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			synchronized (this)
+			{
+				try
+				{
+					if (m_interval <= 0)
+					{
+						wait();
+					}
+					else
+					{
+						wait(m_interval);
+					}
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				if (m_stop)
+				{
+					return;
+				}
+				if (m_interval <= 0)
+				{
+					continue;
+				}
+			}
+			sample();
+		}
+	}
+	
+	/**
+	 * Records one sample of each metric for each running experiment
+	 */
+	protected void sample()
+	{
+		long now = System.nanoTime();
+		Map<String,long[]> previous = new HashMap<String,long[]>(m_previous);
+		m_previous.clear();
+		float heap = m_memory.getHeapMemoryUsage().getUsed() / 1048576f;
+		long rss = OperatingSystem.getResidentMemory();
+		float cpu = getUtilization("self", now, previous);
+		for (Experiment e : m_dispatcher.getRunning())
+		{
+			if (e.getStatus() != Experiment.Status.RUNNING)
+			{
+				continue;
+			}
+			e.addSample(HEAP, now, heap);
+			if (rss >= 0)
+			{
+				e.addSample(RSS, now, rss / 1048576f);
+			}
+			if (cpu >= 0)
+			{
+				e.addSample(CPU, now, cpu);
+			}
+			long pid = e.getProcessId();
+			if (pid < 0)
+			{
+				continue;
+			}
+			String key = Long.toString(pid);
+			long[] usage = OperatingSystem.getProcessUsage(key);
+			if (usage != null)
+			{
+				e.addSample(CHILD_RSS, now, usage[1] / 1048576f);
+			}
+			float child_cpu = getUtilization(key, now, previous);
+			if (child_cpu >= 0)
+			{
+				e.addSample(CHILD_CPU, now, child_cpu);
+			}
+		}
+	}
+	
+	/**
+	 * Computes the CPU utilization of a process since the previous
+	 * sample
+	 * @param pid The ID of the process
+	 * @param now The current time, in nanoseconds
+	 * @param previous The CPU time and time of each process at the
+	 *   previous sample
+	 * @return The utilization, or -1 if it cannot be computed
+	 */
+	protected float getUtilization(String pid, long now, Map<String,long[]> previous)
+	{
+		long[] usage = OperatingSystem.getProcessUsage(pid);
+		if (usage == null)
+		{
+			return -1;
+		}
+		m_previous.put(pid, new long[] {usage[0], now});
+		long[] before = previous.get(pid);
+		if (before == null || now <= before[1])
+		{
+			// First sample of this process
+			return -1;
+		}
+		return (usage[0] - before[0]) * 1000000f / (now - before[1]);
+	}
+}
@@ -17,6 +17,10 @@
  */
 package ca.uqac.lif.parkbench;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
 public class OperatingSystem
 {
 	/**
@@ -50,4 +54,148 @@ public class OperatingSystem
 		}
 		return Type.LINUX;
 	}
+	
+	/**
+	 * Gets the system load average over the last minute, as read from
+	 * <tt>/proc/loadavg</tt>
+	 * @return The load average, or -1 if it cannot be read
+	 */
+	public static float getLoadAverage()
+	{
+		String line = readFirstLine("/proc/loadavg", "");
+		if (line == null)
+		{
+			return -1;
+		}
+		try
+		{
+			return Float.parseFloat(line.trim().split("\\s+")[0]);
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Gets the amount of memory available for new processes, as read
+	 * from the <tt>MemAvailable</tt> line of <tt>/proc/meminfo</tt>
+	 * @return The amount of memory in bytes, or -1 if it cannot be read
+	 */
+	public static long getAvailableMemory()
+	{
+		String line = readFirstLine("/proc/meminfo", "MemAvailable:");
+		if (line == null)
+		{
+			return -1;
+		}
+		try
+		{
+			// The line looks like "MemAvailable:   123456 kB"
+			String[] parts = line.trim().split("\\s+");
+			return Long.parseLong(parts[1]) * 1024;
+		}
+		catch (RuntimeException e)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Gets the resident set size of the JVM, as read from the
+	 * <tt>VmRSS</tt> line of <tt>/proc/self/status</tt>
+	 * @return The size in bytes, or -1 if it cannot be read
+	 */
+	public static long getResidentMemory()
+	{
+		String line = readFirstLine("/proc/self/status", "VmRSS:");
+		if (line == null)
+		{
+			return -1;
+		}
+		try
+		{
+			// The line looks like "VmRSS:   123456 kB"
+			String[] parts = line.trim().split("\\s+");
+			return Long.parseLong(parts[1]) * 1024;
+		}
+		catch (RuntimeException e)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Gets the CPU time and resident set size of a process, as read from
+	 * <tt>/proc/&lt;pid&gt;/stat</tt>. This assumes the usual clock tick
+	 * of 100 Hz and pages of 4 kB.
+	 * @param pid The ID of the process, or <tt>self</tt> for the JVM
+	 * @return An array with the CPU time (user and system) in
+	 *   milliseconds and the resident set size in bytes, or null if the
+	 *   process does not exist or the file cannot be read
+	 */
+	public static long[] getProcessUsage(String pid)
+	{
+		String line = readFirstLine("/proc/" + pid + "/stat", "");
+		if (line == null)
+		{
+			return null;
+		}
+		try
+		{
+			// The command name is in parentheses and may contain spaces:
+			// fields are counted from the closing one, which ends field 2
+			String[] parts = line.substring(line.lastIndexOf(')') + 2).split(" ");
+			long ticks = Long.parseLong(parts[11]) + Long.parseLong(parts[12]);
+			long pages = Long.parseLong(parts[21]);
+			return new long[] {ticks * 10, pages * 4096};
+		}
+		catch (RuntimeException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads the first line of a file that starts with some prefix
+	 * @param filename The name of the file
+	 * @param prefix The prefix
+	 * @return The line, or null if no line matches or the file cannot
+	 *   be read
+	 */
+	protected static String readFirstLine(String filename, String prefix)
+	{
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader(new FileReader(filename));
+			String line = null;
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.startsWith(prefix))
+				{
+					return line;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// Not available on this system
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException e)
+				{
+					// Nothing to do
+				}
+			}
+		}
+		return null;
+	}
 }
@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.Vector;
 
 /**
@@ -42,6 +43,16 @@ public class Parameters extends HashMap<String,Object>
 		super();
 	}
 	
+	/**
+	 * Creates an empty set of parameters with room for a number of
+	 * entries
+	 * @param capacity The number of entries
+	 */
+	public Parameters(int capacity)
+	{
+		super(capacity * 4 / 3 + 1);
+	}
+	
 	/**
 	 * Creates a set of parameters by copying the contents of another
 	 * set
@@ -166,6 +177,76 @@ public class Parameters extends HashMap<String,Object>
 		return params.match(this) && this.match(params);
 	}
 	
+	/**
+	 * Produces a string that is the same for all sets of parameters that
+	 * are {@linkplain #equals(Object) equal}, whatever the order of their
+	 * keys and the type of their numbers. Keys are sorted, numbers are
+	 * compared as floats (as in {@link #match(Parameters)}) and written
+	 * without a decimal part when they are integers, and strings are
+	 * quoted.
+	 * @return The string
+	 */
+	public String toCanonicalString()
+	{
+		StringBuilder out = new StringBuilder();
+		out.append("{");
+		boolean first = true;
+		for (String k : new TreeSet<String>(keySet()))
+		{
+			if (!first)
+			{
+				out.append(",");
+			}
+			first = false;
+			appendQuoted(out, k);
+			out.append(":");
+			Object o = get(k);
+			if (o instanceof Number)
+			{
+				float f = ((Number) o).floatValue();
+				if (f == Math.rint(f) && Math.abs(f) < 1e15)
+				{
+					out.append((long) f);
+				}
+				else
+				{
+					out.append(f);
+				}
+			}
+			else if (o == null)
+			{
+				out.append("null");
+			}
+			else
+			{
+				appendQuoted(out, o.toString());
+			}
+		}
+		out.append("}");
+		return out.toString();
+	}
+	
+	/**
+	 * Appends a string between double quotes, escaping quotes and
+	 * backslashes
+	 * @param out The builder to append to
+	 * @param s The string
+	 */
+	protected static void appendQuoted(StringBuilder out, String s)
+	{
+		out.append('"');
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				out.append('\\');
+			}
+			out.append(c);
+		}
+		out.append('"');
+	}
+	
 	/**
 	 * Checks if a test matches a set of parameters. This happens
 	 * when all parameters specified in the argument are also defined
@@ -0,0 +1,206 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts hardware events of a command with Linux's <tt>perf stat</tt>.
+ * The command is prefixed with <tt>perf stat -x,</tt>, which prints one
+ * line of comma-separated values for each event on the standard error
+ * once the command ends. These lines are then read back into the
+ * results of the experiment, under the name of each event (e.g.
+ * <tt>cycles</tt>).
+ * 
+ * @author Sylvain Hallé
+ */
+public class PerfStat
+{
+	/**
+	 * The events counted by default
+	 */
+	public static final List<String> DEFAULT_EVENTS = Arrays.asList(
+			"cycles", "instructions", "cache-misses", "branch-misses");
+	
+	/**
+	 * Whether commands are counted unless told otherwise
+	 */
+	protected static boolean s_enabled = false;
+	
+	/**
+	 * Whether <tt>perf</tt> can be run on this machine, or null if
+	 * this has not been checked yet
+	 */
+	protected static Boolean s_available = null;
+	
+	private PerfStat()
+	{
+		super();
+	}
+	
+	/**
+	 * Sets whether the commands of {@link CommandExperiment}s are counted
+	 * unless told otherwise
+	 * @param b Set to true to count them
+	 * @see CommandExperiment#setPerfCounters(boolean)
+	 */
+	public static synchronized void setEnabled(boolean b)
+	{
+		s_enabled = b;
+	}
+	
+	/**
+	 * Determines whether commands are counted unless told otherwise
+	 * @return true if they are, false otherwise
+	 */
+	public static synchronized boolean isEnabled()
+	{
+		return s_enabled;
+	}
+	
+	/**
+	 * Checks whether <tt>perf</tt> can count events on this machine, by
+	 * counting the cycles of a command that does nothing. Being installed
+	 * is not enough: counters cannot be opened when
+	 * <tt>/proc/sys/kernel/perf_event_paranoid</tt> is too restrictive,
+	 * or in many containers. The check is made only once.
+	 * @return true if it can, false otherwise
+	 */
+	public static synchronized boolean isAvailable()
+	{
+		if (s_available == null)
+		{
+			// Not through CommandRunner, which complains if perf is missing
+			try
+			{
+				ProcessBuilder builder = new ProcessBuilder("perf", "stat", "-x,", "-e", "cycles", "--", "true");
+				builder.redirectErrorStream(true);
+				Process process = builder.start();
+				process.getOutputStream().close();
+				drain(process.getInputStream());
+				s_available = process.waitFor() == 0;
+			}
+			catch (IOException e)
+			{
+				s_available = false;
+			}
+			catch (InterruptedException e)
+			{
+				// Don't cache the answer: check again next time
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return s_available;
+	}
+	
+	/**
+	 * Reads a stream until its end, and closes it
+	 * @param in The stream
+	 * @throws IOException If the stream cannot be read
+	 */
+	protected static void drain(InputStream in) throws IOException
+	{
+		try
+		{
+			byte[] buffer = new byte[1024];
+			while (in.read(buffer) != -1)
+			{
+				// Discard
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Prefixes a command with <tt>perf stat</tt>
+	 * @param command The command
+	 * @param events The events to count
+	 * @return The new command
+	 */
+	public static String[] wrap(String[] command, List<String> events)
+	{
+		StringBuilder event_list = new StringBuilder();
+		for (String event : events)
+		{
+			if (event_list.length() > 0)
+			{
+				event_list.append(",");
+			}
+			event_list.append(event);
+		}
+		String[] prefix = {"perf", "stat", "-x,", "-e", event_list.toString(), "--"};
+		String[] out = new String[prefix.length + command.length];
+		System.arraycopy(prefix, 0, out, 0, prefix.length);
+		System.arraycopy(command, 0, out, prefix.length, command.length);
+		return out;
+	}
+	
+	/**
+	 * Reads the counters printed by <tt>perf stat -x,</tt>, and puts them
+	 * in a set of results. Lines that are not counters (such as those
+	 * printed by the command itself), and events that could not be
+	 * counted, are ignored.
+	 * @param stderr The standard error of the command
+	 * @param events The events that were counted
+	 * @param results The results
+	 * @return true if <tt>perf</tt> printed a line for at least one of
+	 *   the events, even one that could not be counted; false means
+	 *   that it failed, usually without running the command at all
+	 */
+	public static boolean readCounters(String stderr, List<String> events, Parameters results)
+	{
+		boolean found = false;
+		for (String line : stderr.split("\n"))
+		{
+			// The line looks like "12345,,cycles:u,1000,100.00,,"
+			String[] parts = line.trim().split(",");
+			if (parts.length < 3)
+			{
+				continue;
+			}
+			String event = parts[2];
+			int colon = event.indexOf(':');
+			if (colon >= 0)
+			{
+				// Remove modifiers such as ":u"
+				event = event.substring(0, colon);
+			}
+			if (!events.contains(event))
+			{
+				continue;
+			}
+			found = true;
+			try
+			{
+				results.put(event, Long.parseLong(parts[0]));
+			}
+			catch (NumberFormatException e)
+			{
+				// "<not counted>" or "<not supported>"
+			}
+		}
+		return found;
+	}
+}
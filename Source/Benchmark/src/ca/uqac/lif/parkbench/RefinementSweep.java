@@ -0,0 +1,533 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps a numerical parameter by refining a coarse grid where it
+ * matters. The sweep starts with a few evenly spaced values of the
+ * parameter; for each value, it adds to the benchmark one experiment per
+ * <em>series</em>, each series being given by a prototype experiment.
+ * Every time experiments finish, new values are picked in the middle of
+ * the interval between two neighbouring values that looks the most
+ * interesting:
+ * <ul>
+ * <li>first, intervals where two series cross, i.e. where the series
+ *   whose result is the highest is not the same at both ends;</li>
+ * <li>then, intervals where the result of a series changes the most,
+ *   relative to its value, and weighted by the width of the interval.</li>
+ * </ul>
+ * The sweep stops when it has created a maximum number of experiments,
+ * when a time budget is exhausted, or when no interval can be split.
+ * For example, to find where QuickSort overtakes ShellSort:
+ * <pre>
+ * new RefinementSweep(b, "size", "time", new QuickSort(), new ShellSort())
+ *   .setRange(5000, 40000).setMaxExperiments(40).start();
+ * </pre>
+ * 
+ * @author Sylvain Hallé
+ */
+public class RefinementSweep implements ExperimentListener
+{
+	/**
+	 * The benchmark where experiments are added
+	 */
+	protected final Benchmark m_benchmark;
+	
+	/**
+	 * The name of the parameter that is swept
+	 */
+	protected final String m_parameter;
+	
+	/**
+	 * The name of the result that is compared
+	 */
+	protected final String m_result;
+	
+	/**
+	 * One experiment for each series, whose parameters are copied into
+	 * the experiments of that series
+	 */
+	protected final List<Experiment> m_prototypes;
+	
+	/**
+	 * The lowest value of the parameter
+	 */
+	protected float m_min = 0;
+	
+	/**
+	 * The highest value of the parameter
+	 */
+	protected float m_max = 1;
+	
+	/**
+	 * The number of values in the initial grid
+	 */
+	protected int m_initialPoints = 5;
+	
+	/**
+	 * Whether the parameter only takes integer values
+	 */
+	protected boolean m_integer = true;
+	
+	/**
+	 * The maximum number of experiments created by the sweep
+	 */
+	protected int m_maxExperiments = 100;
+	
+	/**
+	 * The time budget of the sweep, in nanoseconds; 0 means no limit
+	 */
+	protected long m_maxTime = 0;
+	
+	/**
+	 * The value of <tt>System.nanoTime()</tt> when the sweep ends, if it
+	 * has a time budget
+	 */
+	protected long m_deadline = 0;
+	
+	/**
+	 * For each value of the parameter, the experiments of each series
+	 */
+	protected final TreeMap<Float,Experiment[]> m_points = new TreeMap<Float,Experiment[]>();
+	
+	/**
+	 * The values of the parameter whose experiments could not run
+	 */
+	protected final Set<Float> m_refused = new HashSet<Float>();
+	
+	/**
+	 * The experiments created by the sweep
+	 */
+	protected final Set<Experiment> m_created = new HashSet<Experiment>();
+	
+	/**
+	 * The number of experiments created by the sweep that are not finished
+	 */
+	protected int m_pending = 0;
+	
+	/**
+	 * Whether points are being added
+	 */
+	protected boolean m_filling = false;
+	
+	/**
+	 * Whether the sweep has started
+	 */
+	protected boolean m_started = false;
+	
+	/**
+	 * Creates a new sweep
+	 * @param b The benchmark where experiments are added
+	 * @param parameter The name of the parameter that is swept
+	 * @param result The name of the result that is compared
+	 * @param prototypes One experiment for each series; their parameters
+	 *   are copied into the experiments of that series
+	 */
+	public RefinementSweep(Benchmark b, String parameter, String result, Experiment ... prototypes)
+	{
+		super();
+		m_benchmark = b;
+		m_parameter = parameter;
+		m_result = result;
+		m_prototypes = new ArrayList<Experiment>(Arrays.asList(prototypes));
+	}
+	
+	/**
+	 * Sets the range of values of the parameter
+	 * @param min The lowest value
+	 * @param max The highest value
+	 * @return This sweep
+	 */
+	public synchronized RefinementSweep setRange(float min, float max)
+	{
+		m_min = Math.min(min, max);
+		m_max = Math.max(min, max);
+		return this;
+	}
+	
+	/**
+	 * Sets the number of values in the initial grid
+	 * @param n The number of values, at least 2
+	 * @return This sweep
+	 */
+	public synchronized RefinementSweep setInitialPoints(int n)
+	{
+		m_initialPoints = Math.max(2, n);
+		return this;
+	}
+	
+	/**
+	 * Sets whether the parameter only takes integer values (the default)
+	 * @param b Set to false if the parameter can take any value
+	 * @return This sweep
+	 */
+	public synchronized RefinementSweep setInteger(boolean b)
+	{
+		m_integer = b;
+		return this;
+	}
+	
+	/**
+	 * Sets the maximum number of experiments created by the sweep
+	 * @param n The number of experiments
+	 * @return This sweep
+	 */
+	public synchronized RefinementSweep setMaxExperiments(int n)
+	{
+		m_maxExperiments = n;
+		return this;
+	}
+	
+	/**
+	 * Sets the time budget of the sweep. No experiment is created once it
+	 * is exhausted; those already created still run.
+	 * @param time The duration; 0 means no limit
+	 * @param unit The unit of the duration
+	 * @return This sweep
+	 */
+	public synchronized RefinementSweep setMaxTime(long time, TimeUnit unit)
+	{
+		m_maxTime = unit.toNanos(time);
+		return this;
+	}
+	
+	/**
+	 * Starts the sweep, by adding and queueing the experiments of the
+	 * initial grid
+	 */
+	public synchronized void start()
+	{
+		if (m_started)
+		{
+			return;
+		}
+		m_started = true;
+		if (m_maxTime > 0)
+		{
+			m_deadline = System.nanoTime() + m_maxTime;
+		}
+		m_benchmark.addListener(this);
+		// The benchmark is not finished while points can still be added
+		m_benchmark.addProducer(this);
+		m_filling = true;
+		try
+		{
+			for (int i = 0; i < m_initialPoints; i++)
+			{
+				if (!canCreate())
+				{
+					break;
+				}
+				addPoint(m_min + i * (m_max - m_min) / (m_initialPoints - 1));
+			}
+		}
+		finally
+		{
+			m_filling = false;
+		}
+		refine();
+	}
+	
+	/**
+	 * Determines if the sweep is over, i.e. if it creates no more
+	 * experiments and all those it created are finished
+	 * @return true if the sweep is over, false otherwise
+	 */
+	public synchronized boolean isFinished()
+	{
+		return m_started && m_pending == 0;
+	}
+	
+	/**
+	 * Gets the values of the parameter that were tried
+	 * @return The values, in increasing order
+	 */
+	public synchronized List<Float> getPoints()
+	{
+		return new ArrayList<Float>(m_points.keySet());
+	}
+	
+	/**
+	 * Gets the intervals where two series cross, among the values tried so
+	 * far. As the sweep goes on, these intervals get narrower.
+	 * @return A list of intervals, each given by its lower and upper
+	 *   bounds
+	 */
+	public synchronized List<float[]> getCrossovers()
+	{
+		List<float[]> out = new ArrayList<float[]>();
+		Map.Entry<Float,Experiment[]> previous = null;
+		for (Map.Entry<Float,Experiment[]> entry : m_points.entrySet())
+		{
+			if (previous != null)
+			{
+				float[] low = getResults(previous.getValue());
+				float[] high = getResults(entry.getValue());
+				if (low != null && high != null && crosses(low, high))
+				{
+					out.add(new float[] {previous.getKey(), entry.getKey()});
+				}
+			}
+			previous = entry;
+		}
+		return out;
+	}
+	
+	@Override
+	public void experimentFinished(Experiment e)
+	{
+		synchronized (this)
+		{
+			if (!m_created.contains(e))
+			{
+				// Not one of ours
+				return;
+			}
+			m_pending--;
+			refine();
+		}
+	}
+	
+	/**
+	 * Adds points until as many experiments are waiting as the benchmark
+	 * can run, or no point can be added. Experiments whose results are in
+	 * the cache of the benchmark finish as soon as they are queued, while
+	 * points are being added; the sweep is only checked for completion
+	 * once they all are.
+	 */
+	protected void refine()
+	{
+		if (m_filling)
+		{
+			return;
+		}
+		m_filling = true;
+		try
+		{
+			while (m_pending < m_benchmark.threadCount() && canCreate())
+			{
+				float x = nextPoint();
+				if (Float.isNaN(x) || !addPoint(x))
+				{
+					break;
+				}
+			}
+		}
+		finally
+		{
+			m_filling = false;
+		}
+		if (m_pending == 0)
+		{
+			m_benchmark.removeListener(this);
+			m_benchmark.removeProducer(this);
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Waits until the sweep is over
+	 * @throws InterruptedException If the thread is interrupted while
+	 *   waiting
+	 */
+	public synchronized void waitUntilFinished() throws InterruptedException
+	{
+		while (!isFinished())
+		{
+			wait();
+		}
+	}
+	
+	/**
+	 * Determines if the budget of the sweep allows one more value of the
+	 * parameter
+	 * @return true if it does, false otherwise
+	 */
+	protected boolean canCreate()
+	{
+		if (m_created.size() + m_prototypes.size() > m_maxExperiments)
+		{
+			return false;
+		}
+		return m_deadline == 0 || System.nanoTime() - m_deadline < 0;
+	}
+	
+	/**
+	 * Adds and queues the experiments for one value of the parameter
+	 * @param x The value
+	 * @return true if experiments were added, false if that value was
+	 *   already tried, or its experiments could not run
+	 */
+	protected boolean addPoint(float x)
+	{
+		if (m_integer)
+		{
+			x = Math.round(x);
+		}
+		if (m_points.containsKey(x) || m_refused.contains(x))
+		{
+			return false;
+		}
+		Experiment[] experiments = new Experiment[m_prototypes.size()];
+		for (int i = 0; i < experiments.length; i++)
+		{
+			Experiment prototype = m_prototypes.get(i);
+			Experiment e = prototype.newExperiment();
+			Parameters params = prototype.getParameters();
+			for (String name : params.keySet())
+			{
+				e.setParameter(name, params.get(name));
+			}
+			if (m_integer)
+			{
+				e.setParameter(m_parameter, (int) x);
+			}
+			else
+			{
+				e.setParameter(m_parameter, x);
+			}
+			experiments[i] = e;
+			m_created.add(e);
+			m_pending++;
+			// Left out by queueAllExperiments(), since the sweep queues it
+			m_benchmark.addProducedExperiment(e);
+		}
+		m_points.put(x, experiments);
+		for (Experiment e : experiments)
+		{
+			if (!m_benchmark.queueExperiment(e.getId(), true))
+			{
+				// The experiment cannot run; it will never finish, and the
+				// point will never have results
+				m_pending--;
+				m_points.remove(x);
+				m_refused.add(x);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Picks the next value of the parameter to try
+	 * @return The value, or NaN if no interval can be split
+	 */
+	protected float nextPoint()
+	{
+		float best_score = 0;
+		float best_x = Float.NaN;
+		float range = m_max - m_min;
+		Map.Entry<Float,Experiment[]> previous = null;
+		for (Map.Entry<Float,Experiment[]> entry : m_points.entrySet())
+		{
+			if (previous != null)
+			{
+				float low_x = previous.getKey();
+				float high_x = entry.getKey();
+				float middle = (low_x + high_x) / 2;
+				if (m_integer)
+				{
+					middle = (float) Math.floor(middle);
+				}
+				float[] low = getResults(previous.getValue());
+				float[] high = getResults(entry.getValue());
+				if (middle > low_x && middle < high_x && !m_refused.contains(middle) && low != null && high != null)
+				{
+					float width = range > 0 ? (high_x - low_x) / range : 1;
+					float score;
+					if (crosses(low, high))
+					{
+						// Crossovers come first
+						score = 1 + width;
+					}
+					else
+					{
+						score = 0;
+						for (int i = 0; i < low.length; i++)
+						{
+							float sum = Math.abs(low[i]) + Math.abs(high[i]);
+							if (sum > 0)
+							{
+								score = Math.max(score, Math.abs(high[i] - low[i]) / sum);
+							}
+						}
+						score *= width;
+					}
+					if (score > best_score)
+					{
+						best_score = score;
+						best_x = middle;
+					}
+				}
+			}
+			previous = entry;
+		}
+		return best_x;
+	}
+	
+	/**
+	 * Gets the result of the experiments of each series for one value of
+	 * the parameter
+	 * @param experiments The experiments
+	 * @return The results, or null if one of them is not done
+	 */
+	protected float[] getResults(Experiment[] experiments)
+	{
+		float[] out = new float[experiments.length];
+		for (int i = 0; i < experiments.length; i++)
+		{
+			Experiment e = experiments[i];
+			if (e.getStatus() != Experiment.Status.DONE || !e.getResults().containsKey(m_result))
+			{
+				return null;
+			}
+			out[i] = e.getResults().getNumber(m_result).floatValue();
+		}
+		return out;
+	}
+	
+	/**
+	 * Determines if two series cross between two values of the parameter
+	 * @param low The results of each series for the lower value
+	 * @param high The results of each series for the higher value
+	 * @return true if the order of two series is not the same for both
+	 *   values (including a tie at one end only), false otherwise
+	 */
+	protected static boolean crosses(float[] low, float[] high)
+	{
+		for (int i = 0; i < low.length; i++)
+		{
+			for (int j = i + 1; j < low.length; j++)
+			{
+				if (Math.signum(low[i] - low[j]) != Math.signum(high[i] - high[j]))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Admission rule limiting the use of shared resources, such as memory or
+ * disk bandwidth. Experiments declare the resources they use with
+ * {@link Experiment#setResource(String, int)}; each resource tag is given
+ * a capacity. An experiment is admitted only if, for each of its tags,
+ * its weight plus the weights of the running experiments fits within the
+ * capacity. Otherwise, it is skipped, and experiments further in the
+ * queue can start in the meantime. An experiment whose weight alone
+ * exceeds a capacity is admitted when no running experiment uses the
+ * same resource.
+ * 
+ * @author Sylvain Hallé
+ */
+public class ResourceRule implements AdmissionRule
+{
+	/**
+	 * The capacity of each resource tag. Tags without a capacity are
+	 * not limited.
+	 */
+	protected final Map<String,Integer> m_capacities = new HashMap<String,Integer>();
+	
+	/**
+	 * Sets the capacity of a resource
+	 * @param tag The resource tag
+	 * @param capacity The capacity; 0 or less removes the limit
+	 */
+	public synchronized void setCapacity(String tag, int capacity)
+	{
+		if (capacity > 0)
+		{
+			m_capacities.put(tag, capacity);
+		}
+		else
+		{
+			m_capacities.remove(tag);
+		}
+	}
+	
+	/**
+	 * Gets the capacity of a resource
+	 * @param tag The resource tag
+	 * @return The capacity, 0 if the resource is not limited
+	 */
+	public synchronized int getCapacity(String tag)
+	{
+		Integer capacity = m_capacities.get(tag);
+		if (capacity == null)
+		{
+			return 0;
+		}
+		return capacity;
+	}
+	
+	@Override
+	public synchronized Decision admit(Experiment e, Collection<Experiment> running)
+	{
+		for (Map.Entry<String,Integer> need : e.getResources().entrySet())
+		{
+			String tag = need.getKey();
+			Integer capacity = m_capacities.get(tag);
+			if (capacity == null)
+			{
+				continue;
+			}
+			int used = 0;
+			for (Experiment r : running)
+			{
+				Integer weight = r.getResources().get(tag);
+				if (weight != null)
+				{
+					used += weight;
+				}
+			}
+			if (used > 0 && used + need.getValue() > capacity)
+			{
+				return Decision.SKIP;
+			}
+		}
+		return Decision.ADMIT;
+	}
+}
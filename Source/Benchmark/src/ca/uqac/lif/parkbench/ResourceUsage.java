@@ -0,0 +1,170 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Snapshot of the resources used by the current thread and by the
+ * garbage collector of the JVM. Two snapshots taken around a piece of
+ * code tell how much CPU time it took, how many bytes it allocated and
+ * how much garbage collection happened meanwhile. Note that garbage
+ * collection is counted for the whole JVM, and not only for the thread.
+ * Measures the JVM cannot provide are set to -1.
+ * 
+ * @author Sylvain Hallé
+ */
+public class ResourceUsage
+{
+	/**
+	 * Gives the CPU time of threads
+	 */
+	protected static final ThreadMXBean s_threads = ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * The method <tt>getThreadAllocatedBytes(long)</tt> of HotSpot's
+	 * extended thread bean, or null if the JVM does not provide it
+	 */
+	protected static final Method s_allocatedBytes = getAllocatedBytesMethod();
+	
+	/**
+	 * The CPU time of the thread, in nanoseconds
+	 */
+	protected final long m_cpuTime;
+	
+	/**
+	 * The user time of the thread, in nanoseconds
+	 */
+	protected final long m_userTime;
+	
+	/**
+	 * The number of bytes allocated by the thread
+	 */
+	protected final long m_allocatedBytes;
+	
+	/**
+	 * The number of garbage collections
+	 */
+	protected final long m_gcCount;
+	
+	/**
+	 * The time spent in garbage collections, in milliseconds
+	 */
+	protected final long m_gcTime;
+	
+	/**
+	 * Takes a snapshot of the resources used so far by the current thread
+	 */
+	public ResourceUsage()
+	{
+		super();
+		long cpu = -1, user = -1;
+		if (s_threads.isCurrentThreadCpuTimeSupported() && s_threads.isThreadCpuTimeEnabled())
+		{
+			cpu = s_threads.getCurrentThreadCpuTime();
+			user = s_threads.getCurrentThreadUserTime();
+		}
+		m_cpuTime = cpu;
+		m_userTime = user;
+		m_allocatedBytes = getAllocatedBytes();
+		long count = 0, time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			count += Math.max(0, gc.getCollectionCount());
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		m_gcCount = count;
+		m_gcTime = time;
+	}
+	
+	/**
+	 * Puts in a set of results the resources used since an earlier
+	 * snapshot, under the keys {@link Experiment#CPU_TIME},
+	 * {@link Experiment#USER_TIME}, {@link Experiment#ALLOCATED_BYTES},
+	 * {@link Experiment#GC_COUNT} and {@link Experiment#GC_TIME}
+	 * @param start The earlier snapshot
+	 * @param results The results
+	 */
+	public void putDifference(ResourceUsage start, Parameters results)
+	{
+		if (m_cpuTime >= 0 && start.m_cpuTime >= 0)
+		{
+			results.put(Experiment.CPU_TIME, (m_cpuTime - start.m_cpuTime) / 1000000f);
+			results.put(Experiment.USER_TIME, (m_userTime - start.m_userTime) / 1000000f);
+		}
+		if (m_allocatedBytes >= 0 && start.m_allocatedBytes >= 0)
+		{
+			results.put(Experiment.ALLOCATED_BYTES, m_allocatedBytes - start.m_allocatedBytes);
+		}
+		results.put(Experiment.GC_COUNT, m_gcCount - start.m_gcCount);
+		results.put(Experiment.GC_TIME, m_gcTime - start.m_gcTime);
+	}
+	
+	/**
+	 * Gets the number of bytes allocated so far by the current thread
+	 * @return The number of bytes, or -1 if the JVM cannot tell
+	 */
+	protected static long getAllocatedBytes()
+	{
+		if (s_allocatedBytes == null)
+		{
+			return -1;
+		}
+		try
+		{
+			Object bytes = s_allocatedBytes.invoke(s_threads, Thread.currentThread().getId());
+			return ((Long) bytes).longValue();
+		}
+		catch (Exception e)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Gets the method <tt>getThreadAllocatedBytes(long)</tt> of
+	 * <tt>com.sun.management.ThreadMXBean</tt>, which is not part of the
+	 * standard API
+	 * @return The method, or null if it is not available
+	 */
+	private static Method getAllocatedBytesMethod()
+	{
+		try
+		{
+			Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+			if (!c.isInstance(s_threads))
+			{
+				return null;
+			}
+			Method m = c.getMethod("getThreadAllocatedBytes", long.class);
+			Method enabled = c.getMethod("isThreadAllocatedMemoryEnabled");
+			if (!((Boolean) enabled.invoke(s_threads)).booleanValue())
+			{
+				return null;
+			}
+			return m;
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+}
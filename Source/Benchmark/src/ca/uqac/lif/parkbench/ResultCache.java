@@ -0,0 +1,452 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonParser;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
+import ca.uqac.lif.util.FileReadWrite;
+
+/**
+ * Keeps the results of experiments on disk, so that an experiment that
+ * was already run is not run again. Each experiment that is done is
+ * saved in a file named after a SHA-256 hash of:
+ * <ul>
+ * <li>the name of the experiment;</li>
+ * <li>its input parameters, in their
+ *   {@linkplain Parameters#toCanonicalString() canonical form};</li>
+ * <li>a <em>fingerprint</em> given by the user, such as the version of
+ *   the code being benchmarked. Changing the fingerprint makes all the
+ *   previous results miss.</li>
+ * </ul>
+ * When the {@link Benchmark} is about to queue an experiment whose file
+ * exists, it reads the experiment's results from the file instead. The
+ * cache has a maximum size; when it is exceeded, the results used the
+ * least recently are deleted. Since the recency of a result is the date
+ * of its file, this carries over from one run to the next.
+ * 
+ * @author Sylvain Hallé
+ * @see Benchmark#setCache(ResultCache)
+ */
+public class ResultCache implements ExperimentListener
+{
+	/**
+	 * The directory used by default
+	 */
+	public static final String DEFAULT_DIRECTORY = ".parkbench-cache";
+	
+	/**
+	 * The maximum size of the cache used by default, in bytes
+	 */
+	public static final long DEFAULT_MAX_SIZE = 100 * 1024 * 1024;
+	
+	/**
+	 * The extension of the files of the cache
+	 */
+	protected static final String s_extension = ".json";
+	
+	/**
+	 * The directory where results are saved
+	 */
+	protected final File m_directory;
+	
+	/**
+	 * The maximum size of the cache, in bytes
+	 */
+	protected final long m_maxSize;
+	
+	/**
+	 * The fingerprint of the code being benchmarked
+	 */
+	protected String m_fingerprint = "";
+	
+	/**
+	 * Whether results are only written to the cache, and never read
+	 */
+	protected boolean m_refresh = false;
+	
+	/**
+	 * The size of each file in the cache, from the least to the most
+	 * recently used; null until the directory is read
+	 */
+	protected LinkedHashMap<String,Long> m_entries = null;
+	
+	/**
+	 * The total size of the files in the cache
+	 */
+	protected long m_size = 0;
+	
+	/**
+	 * The experiments whose results were just read from the cache, and
+	 * must not be written back when the benchmark reports them as
+	 * finished
+	 */
+	protected final Set<Experiment> m_fetched = new HashSet<Experiment>();
+	
+	/**
+	 * Creates a new cache
+	 * @param directory The directory where results are saved; it is
+	 *   created if it does not exist
+	 * @param max_size The maximum size of the cache, in bytes
+	 */
+	public ResultCache(String directory, long max_size)
+	{
+		super();
+		m_directory = new File(directory);
+		m_maxSize = max_size;
+	}
+	
+	/**
+	 * Creates a new cache with the default maximum size
+	 * @param directory The directory where results are saved
+	 */
+	public ResultCache(String directory)
+	{
+		this(directory, DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * Creates a new cache in the default directory, with the default
+	 * maximum size
+	 */
+	public ResultCache()
+	{
+		this(DEFAULT_DIRECTORY);
+	}
+	
+	/**
+	 * Sets the fingerprint of the code being benchmarked
+	 * @param fingerprint The fingerprint, e.g. a version number or a
+	 *   commit hash
+	 * @return This cache
+	 */
+	public synchronized ResultCache setFingerprint(String fingerprint)
+	{
+		m_fingerprint = fingerprint == null ? "" : fingerprint;
+		return this;
+	}
+	
+	/**
+	 * Gets the fingerprint of the code being benchmarked
+	 * @return The fingerprint
+	 */
+	public synchronized String getFingerprint()
+	{
+		return m_fingerprint;
+	}
+	
+	/**
+	 * Sets whether the cache is refreshed. In this mode, no result is read
+	 * from the cache: every experiment runs again, and its new results
+	 * replace the ones kept in the cache.
+	 * @param b Set to true to refresh the cache
+	 * @return This cache
+	 */
+	public synchronized ResultCache setRefresh(boolean b)
+	{
+		m_refresh = b;
+		return this;
+	}
+	
+	/**
+	 * Determines whether the cache is refreshed
+	 * @return true if it is, false otherwise
+	 */
+	public synchronized boolean isRefresh()
+	{
+		return m_refresh;
+	}
+	
+	/**
+	 * Computes the key of an experiment in the cache
+	 * @param e The experiment
+	 * @return The key, as a string of hexadecimal digits
+	 */
+	public synchronized String getKey(Experiment e)
+	{
+		String s = e.getName() + "\n" + e.getParameters().toCanonicalString() + "\n" + m_fingerprint;
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes("UTF-8"));
+			StringBuilder out = new StringBuilder();
+			for (byte b : digest)
+			{
+				out.append(String.format("%02x", b));
+			}
+			return out.toString();
+		}
+		catch (NoSuchAlgorithmException ex)
+		{
+			// Every JVM has SHA-256
+			throw new RuntimeException(ex);
+		}
+		catch (UnsupportedEncodingException ex)
+		{
+			// Every JVM has UTF-8
+			throw new RuntimeException(ex);
+		}
+	}
+	
+	/**
+	 * Reads the results of an experiment from the cache
+	 * @param e The experiment
+	 * @return true if the experiment was in the cache, in which case it is
+	 *   now done; false otherwise
+	 */
+	public synchronized boolean fetch(Experiment e)
+	{
+		if (m_refresh)
+		{
+			return false;
+		}
+		String key = getKey(e);
+		if (!getEntries().containsKey(key))
+		{
+			return false;
+		}
+		File f = getFile(key);
+		JsonMap state;
+		try
+		{
+			state = (JsonMap) new JsonParser().parse(FileReadWrite.readFile(f.getPath()));
+		}
+		catch (IOException ex)
+		{
+			remove(key);
+			return false;
+		}
+		catch (JsonParseException ex)
+		{
+			// Truncated or corrupted: forget about it
+			remove(key);
+			return false;
+		}
+		if (state == null || Experiment.stringToStatus(state.getString("status")) != Experiment.Status.DONE)
+		{
+			remove(key);
+			return false;
+		}
+		e.deserializeResults(state);
+		// Mark the entry as the most recently used, also for the next runs
+		m_entries.get(key);
+		f.setLastModified(System.currentTimeMillis());
+		m_fetched.add(e);
+		return true;
+	}
+	
+	/**
+	 * Saves the results of an experiment in the cache. Nothing is saved if
+	 * the experiment is not done, or was only a dry run.
+	 * @param e The experiment
+	 */
+	public synchronized void store(Experiment e)
+	{
+		if (e.getStatus() != Experiment.Status.DONE || e.getDryRun())
+		{
+			return;
+		}
+		String key = getKey(e);
+		Map<String,Long> entries = getEntries();
+		if (!m_directory.isDirectory() && !m_directory.mkdirs())
+		{
+			return;
+		}
+		File f = getFile(key);
+		File temp = new File(m_directory, key + ".tmp");
+		try
+		{
+			// Write to a temporary file first, so that another process
+			// never reads a partial result
+			FileReadWrite.writeToFile(temp.getPath(), e.serializeState().toString());
+		}
+		catch (IOException ex)
+		{
+			temp.delete();
+			return;
+		}
+		f.delete();
+		if (!temp.renameTo(f))
+		{
+			temp.delete();
+			return;
+		}
+		Long previous = entries.remove(key);
+		if (previous != null)
+		{
+			m_size -= previous;
+		}
+		entries.put(key, f.length());
+		m_size += f.length();
+		evict();
+	}
+	
+	/**
+	 * Saves the results of experiments that are done, unless they were
+	 * just read from the cache
+	 */
+	@Override
+	public void experimentFinished(Experiment e)
+	{
+		synchronized (this)
+		{
+			if (m_fetched.remove(e))
+			{
+				return;
+			}
+		}
+		store(e);
+	}
+	
+	/**
+	 * Deletes the results of an experiment from the cache
+	 * @param e The experiment
+	 */
+	public synchronized void remove(Experiment e)
+	{
+		String key = getKey(e);
+		if (getEntries().containsKey(key))
+		{
+			remove(key);
+		}
+	}
+	
+	/**
+	 * Deletes all the results in the cache
+	 */
+	public synchronized void clear()
+	{
+		for (String key : getEntries().keySet())
+		{
+			getFile(key).delete();
+		}
+		m_entries.clear();
+		m_size = 0;
+	}
+	
+	/**
+	 * Gets the number of results in the cache
+	 * @return The number of results
+	 */
+	public synchronized int getCount()
+	{
+		return getEntries().size();
+	}
+	
+	/**
+	 * Gets the total size of the results in the cache
+	 * @return The size, in bytes
+	 */
+	public synchronized long getSize()
+	{
+		getEntries();
+		return m_size;
+	}
+	
+	/**
+	 * Deletes the least recently used results until the cache is within
+	 * its maximum size
+	 */
+	protected void evict()
+	{
+		Iterator<Map.Entry<String,Long>> it = m_entries.entrySet().iterator();
+		while (m_size > m_maxSize && it.hasNext())
+		{
+			Map.Entry<String,Long> entry = it.next();
+			getFile(entry.getKey()).delete();
+			m_size -= entry.getValue();
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Forgets about a result and deletes its file
+	 * @param key The key of the result
+	 */
+	protected void remove(String key)
+	{
+		Long size = m_entries.remove(key);
+		if (size != null)
+		{
+			m_size -= size;
+		}
+		getFile(key).delete();
+	}
+	
+	/**
+	 * Gets the file holding a result
+	 * @param key The key of the result
+	 * @return The file
+	 */
+	protected File getFile(String key)
+	{
+		return new File(m_directory, key + s_extension);
+	}
+	
+	/**
+	 * Gets the files in the cache, reading the directory the first time
+	 * @return A map from the key of each result to the size of its file,
+	 *   from the least to the most recently used
+	 */
+	protected Map<String,Long> getEntries()
+	{
+		if (m_entries != null)
+		{
+			return m_entries;
+		}
+		m_entries = new LinkedHashMap<String,Long>(16, 0.75f, true);
+		m_size = 0;
+		File[] files = m_directory.listFiles();
+		if (files == null)
+		{
+			return m_entries;
+		}
+		Arrays.sort(files, new Comparator<File>()
+		{
+			@Override
+			public int compare(File f1, File f2)
+			{
+				long m1 = f1.lastModified(), m2 = f2.lastModified();
+				return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+			}
+		});
+		for (File f : files)
+		{
+			String name = f.getName();
+			if (name.endsWith(s_extension))
+			{
+				m_entries.put(name.substring(0, name.length() - s_extension.length()), f.length());
+				m_size += f.length();
+			}
+		}
+		evict();
+		return m_entries;
+	}
+}
@@ -0,0 +1,220 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Summary statistics of a set of samples of a numerical value: mean,
+ * median, standard deviation, minimum, maximum, and a 95% confidence
+ * interval on the mean, computed with Student's <i>t</i> distribution.
+ * 
+ * @author Sylvain Hallé
+ */
+public class SampleStatistics
+{
+	/**
+	 * Two-sided 95% critical values of Student's <i>t</i> distribution,
+	 * for 1 to 30 degrees of freedom
+	 */
+	protected static final double[] s_tValues = {
+		12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+		2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+		2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+	};
+	
+	/**
+	 * The number of samples
+	 */
+	protected final int m_count;
+	
+	/**
+	 * The mean
+	 */
+	protected final double m_mean;
+	
+	/**
+	 * The median
+	 */
+	protected final double m_median;
+	
+	/**
+	 * The sample standard deviation
+	 */
+	protected final double m_stddev;
+	
+	/**
+	 * The smallest sample
+	 */
+	protected final double m_min;
+	
+	/**
+	 * The largest sample
+	 */
+	protected final double m_max;
+	
+	/**
+	 * Half the width of the confidence interval on the mean
+	 */
+	protected final double m_halfWidth;
+	
+	/**
+	 * Computes the statistics of a list of samples
+	 * @param samples The samples. The list must not be empty.
+	 */
+	public SampleStatistics(List<? extends Number> samples)
+	{
+		super();
+		m_count = samples.size();
+		double[] values = new double[m_count];
+		double sum = 0;
+		for (int i = 0; i < m_count; i++)
+		{
+			values[i] = samples.get(i).doubleValue();
+			sum += values[i];
+		}
+		Arrays.sort(values);
+		m_mean = sum / m_count;
+		m_min = values[0];
+		m_max = values[m_count - 1];
+		if (m_count % 2 == 1)
+		{
+			m_median = values[m_count / 2];
+		}
+		else
+		{
+			m_median = (values[m_count / 2 - 1] + values[m_count / 2]) / 2;
+		}
+		if (m_count > 1)
+		{
+			double squares = 0;
+			for (double v : values)
+			{
+				squares += (v - m_mean) * (v - m_mean);
+			}
+			m_stddev = Math.sqrt(squares / (m_count - 1));
+			m_halfWidth = getTValue(m_count - 1) * m_stddev / Math.sqrt(m_count);
+		}
+		else
+		{
+			m_stddev = 0;
+			m_halfWidth = Double.POSITIVE_INFINITY;
+		}
+	}
+	
+	/**
+	 * Gets the two-sided 95% critical value of Student's <i>t</i>
+	 * distribution
+	 * @param df The number of degrees of freedom
+	 * @return The critical value
+	 */
+	protected static double getTValue(int df)
+	{
+		if (df <= s_tValues.length)
+		{
+			return s_tValues[df - 1];
+		}
+		if (df <= 60)
+		{
+			return 2.000;
+		}
+		if (df <= 120)
+		{
+			return 1.980;
+		}
+		return 1.960;
+	}
+	
+	/**
+	 * Gets the number of samples
+	 * @return The number of samples
+	 */
+	public int getCount()
+	{
+		return m_count;
+	}
+	
+	/**
+	 * Gets the mean of the samples
+	 * @return The mean
+	 */
+	public double getMean()
+	{
+		return m_mean;
+	}
+	
+	/**
+	 * Gets the median of the samples
+	 * @return The median
+	 */
+	public double getMedian()
+	{
+		return m_median;
+	}
+	
+	/**
+	 * Gets the sample standard deviation
+	 * @return The standard deviation, 0 if there is a single sample
+	 */
+	public double getStandardDeviation()
+	{
+		return m_stddev;
+	}
+	
+	/**
+	 * Gets the smallest sample
+	 * @return The value
+	 */
+	public double getMin()
+	{
+		return m_min;
+	}
+	
+	/**
+	 * Gets the largest sample
+	 * @return The value
+	 */
+	public double getMax()
+	{
+		return m_max;
+	}
+	
+	/**
+	 * Gets half the width of the 95% confidence interval on the mean
+	 * @return The half-width; infinite if there is a single sample
+	 */
+	public double getHalfWidth()
+	{
+		return m_halfWidth;
+	}
+	
+	/**
+	 * Gets the half-width of the confidence interval, relative to the mean
+	 * @return The relative half-width; infinite if the mean is 0 or there
+	 *   is a single sample
+	 */
+	public double getRelativeHalfWidth()
+	{
+		if (m_mean == 0)
+		{
+			return m_halfWidth == 0 ? 0 : Double.POSITIVE_INFINITY;
+		}
+		return m_halfWidth / Math.abs(m_mean);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.Iterator;
+
+/**
+ * Decides which combinations of the axes of a {@link Sweep} are tried.
+ * A design enumerates points, each point giving the index of a value
+ * on every axis.
+ * 
+ * @author Sylvain Hallé
+ */
+public abstract class SamplingDesign
+{
+	/**
+	 * Enumerates the points of the design
+	 * @param sizes The number of values of each axis; every size is at
+	 *   least 1
+	 * @return An iterator over the points. Each point is an array with
+	 *   the index of a value for each axis; the iterator may reuse that
+	 *   array between calls.
+	 */
+	public abstract Iterator<int[]> iterator(int[] sizes);
+	
+	/**
+	 * Maps a number between 0 and 1 to the index of a value on an axis
+	 * @param x The number
+	 * @param size The number of values of the axis
+	 * @return The index
+	 */
+	protected static int toIndex(double x, int size)
+	{
+		return Math.min(size - 1, (int) (x * size));
+	}
+}
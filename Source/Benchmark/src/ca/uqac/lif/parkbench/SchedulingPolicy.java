@@ -0,0 +1,51 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+/**
+ * Decides in what order the experiments waiting in an
+ * {@link ExperimentQueue} are started. Each experiment is given a
+ * priority when it is put in the queue; experiments with a higher
+ * priority are started first, and experiments with the same priority
+ * are started in their order of arrival.
+ * 
+ * @author Sylvain Hallé
+ */
+public abstract class SchedulingPolicy
+{
+	/**
+	 * Computes the priority of an experiment
+	 * @param e The experiment
+	 * @return The priority. Higher values are started first.
+	 */
+	public abstract float getPriority(Experiment e);
+	
+	/**
+	 * Informs the policy that an experiment has finished its execution.
+	 * Policies that learn from past executions can override this method.
+	 * @param e The experiment
+	 * @param duration The time the experiment spent in its thread, in
+	 *   nanoseconds
+	 * @return true if the priorities of the experiments still in the
+	 *   queue should be computed again, false otherwise
+	 */
+	public boolean experimentFinished(Experiment e, long duration)
+	{
+		return false;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.Map;
+
+import ca.uqac.lif.jerrydog.CallbackResponse;
+import ca.uqac.lif.jerrydog.RequestCallback;
+import ca.uqac.lif.json.JsonMap;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Changes the number of threads of the benchmark while it runs.
+ * Parameters <tt>threads</tt> and <tt>prereq</tt> give the new number of
+ * threads running experiments and generating prerequisites; parameter
+ * <tt>adaptive</tt> gives the maximum number of threads in adaptive mode,
+ * 0 disabling this mode. All are optional; the response contains the
+ * resulting values.
+ * 
+ * @author Sylvain Hallé
+ */
+public class SetThreads extends BenchmarkCallback
+{
+	public SetThreads(Benchmark b)
+	{
+		super(RequestCallback.Method.GET, "/threads", b);
+	}
+
+	@Override
+	public CallbackResponse process(HttpExchange t)
+	{
+		Map<String,String> params = getParameters(t);
+		CallbackResponse response = new CallbackResponse(t);
+		try
+		{
+			if (params.containsKey("adaptive"))
+			{
+				int max_threads = Integer.parseInt(params.get("adaptive"));
+				if (max_threads > 0)
+				{
+					m_benchmark.setAdaptiveThreads(new AdaptiveThreadCount(1, max_threads));
+				}
+				else
+				{
+					m_benchmark.setAdaptiveThreads(null);
+				}
+			}
+			int num_threads = m_benchmark.threadCount();
+			int num_prereq_threads = m_benchmark.prerequisiteThreadCount();
+			if (params.containsKey("threads"))
+			{
+				num_threads = Integer.parseInt(params.get("threads"));
+			}
+			if (params.containsKey("prereq"))
+			{
+				num_prereq_threads = Integer.parseInt(params.get("prereq"));
+			}
+			if (num_threads < 1 || num_prereq_threads < 0)
+			{
+				response.setCode(CallbackResponse.HTTP_BAD_REQUEST);
+				return response;
+			}
+			m_benchmark.setThreads(num_threads, num_prereq_threads);
+		}
+		catch (NumberFormatException e)
+		{
+			response.setCode(CallbackResponse.HTTP_BAD_REQUEST);
+			return response;
+		}
+		JsonMap out = new JsonMap();
+		out.put("threads", m_benchmark.threadCount());
+		out.put("prereqthreads", m_benchmark.prerequisiteThreadCount());
+		AdaptiveThreadCount adaptive = m_benchmark.getAdaptiveThreads();
+		out.put("adaptive", adaptive == null ? 0 : adaptive.getMaxThreads());
+		response.setContents(out.toString("", true));
+		response.setContentType(CallbackResponse.ContentType.JSON);
+		return response;
+	}
+}
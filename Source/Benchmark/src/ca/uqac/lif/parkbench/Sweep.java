@@ -0,0 +1,502 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Runs an experiment for every combination of values of a few
+ * parameters, without creating all these experiments up front. A sweep
+ * is declared with:
+ * <ul>
+ * <li><em>axes</em>, each giving a parameter name and the values it
+ *   takes, either as a list or as a range;</li>
+ * <li><em>constraints</em>, which exclude some combinations;</li>
+ * <li>an {@link ExperimentFactory} that creates the experiment for a
+ *   combination, or a prototype experiment whose parameters are copied
+ *   into every experiment of the sweep.</li>
+ * </ul>
+ * By default, every combination is tried, the last axis varying the
+ * fastest, as with nested loops; a {@link SamplingDesign} can instead
+ * pick a subset of them. Combinations are enumerated lazily. Once
+ * started, the sweep keeps only a few experiments waiting in the queue
+ * of the benchmark, and adds new ones as others finish. Finished experiments stay in the benchmark, but are
+ * {@linkplain Experiment#compact() compacted} and no longer referenced
+ * by the sweep. For example:
+ * <pre>
+ * new Sweep(b, new QuickSort())
+ *   .addRange("size", 5000, 40000, 5000)
+ *   .addAxis("order", "random", "sorted", "reversed")
+ *   .start();
+ * </pre>
+ * 
+ * @author Sylvain Hallé
+ */
+public class Sweep implements ExperimentListener
+{
+	/**
+	 * A condition on the combinations of a sweep
+	 */
+	public static interface Constraint
+	{
+		/**
+		 * Decides whether a combination is part of the sweep
+		 * @param params The values of the parameters
+		 * @return true if an experiment should run with these values,
+		 *   false otherwise
+		 */
+		public boolean accepts(Parameters params);
+	}
+	
+	/**
+	 * The benchmark where experiments are added
+	 */
+	protected final Benchmark m_benchmark;
+	
+	/**
+	 * Creates the experiment for each combination
+	 */
+	protected final ExperimentFactory m_factory;
+	
+	/**
+	 * The names of the parameters of each axis
+	 */
+	protected final List<String> m_names = new ArrayList<String>();
+	
+	/**
+	 * The values of each axis
+	 */
+	protected final List<List<?>> m_values = new ArrayList<List<?>>();
+	
+	/**
+	 * The conditions the combinations must fulfill
+	 */
+	protected final List<Constraint> m_constraints = new ArrayList<Constraint>();
+	
+	/**
+	 * Decides which combinations of the axes are tried
+	 */
+	protected SamplingDesign m_design = new FullFactorialDesign();
+	
+	/**
+	 * The number of experiments kept waiting in the queue, in addition to
+	 * one per thread of the benchmark
+	 */
+	protected int m_lookahead = 1;
+	
+	/**
+	 * The combinations that remain to be tried, or null if the sweep has
+	 * not started
+	 */
+	protected Iterator<Parameters> m_combinations = null;
+	
+	/**
+	 * The experiments created by the sweep that are not finished
+	 */
+	protected final Set<Experiment> m_pending = new HashSet<Experiment>();
+	
+	/**
+	 * Whether experiments are being created
+	 */
+	protected boolean m_filling = false;
+	
+	/**
+	 * The number of experiments created so far
+	 */
+	protected long m_created = 0;
+	
+	/**
+	 * Creates a new sweep
+	 * @param b The benchmark where experiments are added
+	 * @param factory Creates the experiment for each combination
+	 */
+	public Sweep(Benchmark b, ExperimentFactory factory)
+	{
+		super();
+		m_benchmark = b;
+		m_factory = factory;
+	}
+	
+	/**
+	 * Creates a new sweep whose experiments are copies of a prototype
+	 * @param b The benchmark where experiments are added
+	 * @param prototype The prototype. Each experiment of the sweep is
+	 *   obtained from its {@link Experiment#newExperiment()} method, and
+	 *   gets its parameters in addition to those of the combination.
+	 */
+	public Sweep(Benchmark b, final Experiment prototype)
+	{
+		this(b, new ExperimentFactory()
+		{
+			@Override
+			public Experiment newExperiment(Parameters params)
+			{
+				Experiment e = prototype.newExperiment();
+				Parameters defaults = prototype.getParameters();
+				for (String name : defaults.keySet())
+				{
+					e.setParameter(name, defaults.get(name));
+				}
+				for (String name : params.keySet())
+				{
+					e.setParameter(name, params.get(name));
+				}
+				return e;
+			}
+		});
+	}
+	
+	/**
+	 * Adds an axis taking values from a list
+	 * @param name The name of the parameter
+	 * @param values The values
+	 * @return This sweep
+	 */
+	public synchronized Sweep addAxis(String name, Object ... values)
+	{
+		return addAxis(name, Arrays.asList(values));
+	}
+	
+	/**
+	 * Adds an axis taking values from a collection
+	 * @param name The name of the parameter
+	 * @param values The values, in the order they are tried
+	 * @return This sweep
+	 */
+	public synchronized Sweep addAxis(String name, Collection<?> values)
+	{
+		m_names.add(name);
+		m_values.add(new ArrayList<Object>(values));
+		return this;
+	}
+	
+	/**
+	 * Adds an axis taking integer values in a range
+	 * @param name The name of the parameter
+	 * @param from The first value
+	 * @param to The last value, included if it is reached by the step
+	 * @param step The difference between two values; must not be 0
+	 * @return This sweep
+	 */
+	public synchronized Sweep addRange(String name, final int from, int to, final int step)
+	{
+		final int size = step == 0 || (to - from) / step < 0 ? 0 : (to - from) / step + 1;
+		m_names.add(name);
+		m_values.add(new AbstractList<Integer>()
+		{
+			@Override
+			public Integer get(int index)
+			{
+				return from + index * step;
+			}
+
+			@Override
+			public int size()
+			{
+				return size;
+			}
+		});
+		return this;
+	}
+	
+	/**
+	 * Adds an axis taking evenly spaced numbers in a range
+	 * @param name The name of the parameter
+	 * @param from The first value
+	 * @param to The last value
+	 * @param count The number of values, at least 2
+	 * @return This sweep
+	 */
+	public synchronized Sweep addRange(String name, final float from, final float to, int count)
+	{
+		final int size = Math.max(2, count);
+		m_names.add(name);
+		m_values.add(new AbstractList<Float>()
+		{
+			@Override
+			public Float get(int index)
+			{
+				return from + index * (to - from) / (size - 1);
+			}
+
+			@Override
+			public int size()
+			{
+				return size;
+			}
+		});
+		return this;
+	}
+	
+	/**
+	 * Adds a condition on the combinations of the sweep
+	 * @param c The condition
+	 * @return This sweep
+	 */
+	public synchronized Sweep addConstraint(Constraint c)
+	{
+		m_constraints.add(c);
+		return this;
+	}
+	
+	/**
+	 * Sets the design that decides which combinations of the axes are
+	 * tried. By default, every combination is tried.
+	 * @param design The design
+	 * @return This sweep
+	 */
+	public synchronized Sweep setDesign(SamplingDesign design)
+	{
+		m_design = design;
+		return this;
+	}
+	
+	/**
+	 * Sets the number of experiments kept waiting in the queue, in
+	 * addition to one per thread of the benchmark
+	 * @param n The number of experiments
+	 * @return This sweep
+	 */
+	public synchronized Sweep setLookahead(int n)
+	{
+		m_lookahead = Math.max(0, n);
+		return this;
+	}
+	
+	/**
+	 * Gets the number of combinations of the axes, before the design and
+	 * the constraints are applied
+	 * @return The number of combinations
+	 */
+	public synchronized long size()
+	{
+		long size = 1;
+		for (List<?> values : m_values)
+		{
+			size *= values.size();
+		}
+		return size;
+	}
+	
+	/**
+	 * Gets the number of experiments created so far
+	 * @return The number of experiments
+	 */
+	public synchronized long getCreatedCount()
+	{
+		return m_created;
+	}
+	
+	/**
+	 * Starts the sweep, by adding and queueing its first experiments.
+	 * Axes and constraints can no longer be added afterwards.
+	 */
+	public synchronized void start()
+	{
+		if (m_combinations != null)
+		{
+			return;
+		}
+		m_combinations = new CombinationIterator();
+		m_benchmark.addListener(this);
+		// The benchmark is not finished until the sweep is
+		m_benchmark.addProducer(this);
+		fill();
+	}
+	
+	/**
+	 * Determines if the sweep is over, i.e. if all its combinations have
+	 * been tried
+	 * @return true if the sweep is over, false otherwise
+	 */
+	public synchronized boolean isFinished()
+	{
+		return m_combinations != null && !m_combinations.hasNext() && m_pending.isEmpty();
+	}
+	
+	/**
+	 * Waits until the sweep is over. Experiments of the sweep that are
+	 * stopped by the user never finish, so the sweep never ends either;
+	 * neither does the benchmark, which counts the sweep as work still
+	 * to do.
+	 * @throws InterruptedException If the thread is interrupted while
+	 *   waiting
+	 */
+	public synchronized void waitUntilFinished() throws InterruptedException
+	{
+		while (!isFinished())
+		{
+			wait();
+		}
+	}
+	
+	@Override
+	public void experimentFinished(Experiment e)
+	{
+		synchronized (this)
+		{
+			if (!m_pending.remove(e))
+			{
+				// Not one of ours
+				return;
+			}
+			e.compact();
+			fill();
+		}
+	}
+	
+	/**
+	 * Creates and queues experiments until enough of them are waiting, or
+	 * there are no combinations left. Experiments whose results are in
+	 * the cache of the benchmark finish as soon as they are queued; they
+	 * are simply replaced by the next ones.
+	 */
+	protected void fill()
+	{
+		if (m_filling)
+		{
+			return;
+		}
+		m_filling = true;
+		try
+		{
+			int wanted = m_benchmark.threadCount() + m_lookahead;
+			while (m_pending.size() < wanted && m_combinations.hasNext())
+			{
+				Experiment e = m_factory.newExperiment(m_combinations.next());
+				if (e == null)
+				{
+					continue;
+				}
+				m_created++;
+				m_pending.add(e);
+				if (!m_benchmark.addProducedExperiment(e)
+						|| !m_benchmark.queueExperiment(e.getId(), true))
+				{
+					// The benchmark already has this experiment, or it cannot
+					// run; either way, the sweep will not see it finish
+					m_pending.remove(e);
+				}
+			}
+		}
+		finally
+		{
+			m_filling = false;
+		}
+		if (isFinished())
+		{
+			m_benchmark.removeListener(this);
+			m_benchmark.removeProducer(this);
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Determines if a combination fulfills all the constraints of the
+	 * sweep
+	 * @param params The values of the parameters
+	 * @return true if it does, false otherwise
+	 */
+	protected boolean accepts(Parameters params)
+	{
+		for (Constraint c : m_constraints)
+		{
+			if (!c.accepts(params))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Enumerates the combinations given by the design of the sweep that
+	 * fulfill the constraints
+	 */
+	protected class CombinationIterator implements Iterator<Parameters>
+	{
+		/**
+		 * The points of the design, or null if an axis has no value
+		 */
+		protected final Iterator<int[]> m_points;
+		
+		/**
+		 * The next combination, or null if it must be computed
+		 */
+		protected Parameters m_next = null;
+		
+		/**
+		 * Creates a new iterator
+		 */
+		public CombinationIterator()
+		{
+			super();
+			int[] sizes = new int[m_values.size()];
+			for (int i = 0; i < sizes.length; i++)
+			{
+				sizes[i] = m_values.get(i).size();
+			}
+			m_points = size() == 0 ? null : m_design.iterator(sizes);
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			while (m_next == null && m_points != null && m_points.hasNext())
+			{
+				int[] point = m_points.next();
+				Parameters params = new Parameters(point.length);
+				for (int i = 0; i < point.length; i++)
+				{
+					params.put(m_names.get(i), m_values.get(i).get(point[i]));
+				}
+				if (accepts(params))
+				{
+					m_next = params;
+				}
+			}
+			return m_next != null;
+		}
+		
+		@Override
+		public Parameters next()
+		{
+			if (!hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+			Parameters out = m_next;
+			m_next = null;
+			return out;
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
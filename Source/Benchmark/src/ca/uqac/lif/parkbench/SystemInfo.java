@@ -39,6 +39,7 @@ public class SystemInfo extends BenchmarkCallback
 	{
 		JsonMap out = new JsonMap();
 		out.put("threads", m_benchmark.threadCount());
+		out.put("prereqthreads", m_benchmark.prerequisiteThreadCount());
 		out.put("osname", System.getProperty("os.name"));
 		out.put("osarch", System.getProperty("os.arch"));
 		out.put("osversion", System.getProperty("os.version"));
@@ -58,4 +59,4 @@ public class SystemInfo extends BenchmarkCallback
 		response.setContentType(CallbackResponse.ContentType.JSON);
 		return response;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
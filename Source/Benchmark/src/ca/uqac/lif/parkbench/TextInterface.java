@@ -524,6 +524,17 @@ public class TextInterface
 			{
 				m_stdout.printf("\nSettings\n--------\n");
 				m_stdout.printf("(C)olumns:     %d\n", m_numColumns);
+				m_stdout.printf("(T)hreads:     %d\n", m_benchmark.threadCount());
+				m_stdout.printf("(P)rerequisite threads: %d\n", m_benchmark.prerequisiteThreadCount());
+				AdaptiveThreadCount adaptive = m_benchmark.getAdaptiveThreads();
+				if (adaptive == null)
+				{
+					m_stdout.printf("(A)daptive:    off\n");
+				}
+				else
+				{
+					m_stdout.printf("(A)daptive:    up to %d threads\n", adaptive.getMaxThreads());
+				}
 				m_stdout.printf("(B)ack to experiments\n");
 				String line = null;
 				line = m_console.readLine();
@@ -548,6 +559,49 @@ public class TextInterface
 						}
 					}
 				}
+				else if (line.compareToIgnoreCase("T") == 0)
+				{
+					m_stdout.printf("Number of threads [%d]: ", m_benchmark.threadCount());
+					String s_num = m_console.readLine();
+					if (s_num != null && !s_num.trim().isEmpty())
+					{
+						int n_threads = Integer.parseInt(s_num.trim());
+						if (n_threads > 0)
+						{
+							m_benchmark.setThreads(n_threads);
+						}
+					}
+				}
+				else if (line.compareToIgnoreCase("P") == 0)
+				{
+					m_stdout.printf("Number of prerequisite threads [%d]: ", m_benchmark.prerequisiteThreadCount());
+					String s_num = m_console.readLine();
+					if (s_num != null && !s_num.trim().isEmpty())
+					{
+						int n_threads = Integer.parseInt(s_num.trim());
+						if (n_threads >= 0)
+						{
+							m_benchmark.setThreads(m_benchmark.threadCount(), n_threads);
+						}
+					}
+				}
+				else if (line.compareToIgnoreCase("A") == 0)
+				{
+					m_stdout.printf("Maximum number of threads (0 for off): ");
+					String s_num = m_console.readLine();
+					if (s_num != null && !s_num.trim().isEmpty())
+					{
+						int n_threads = Integer.parseInt(s_num.trim());
+						if (n_threads > 0)
+						{
+							m_benchmark.setAdaptiveThreads(new AdaptiveThreadCount(1, n_threads));
+						}
+						else
+						{
+							m_benchmark.setAdaptiveThreads(null);
+						}
+					}
+				}
 			}
 			catch (IOException e)
 			{
@@ -17,9 +17,15 @@
  */
 package ca.uqac.lif.parkbench;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import ca.uqac.lif.parkbench.Experiment.Status;
 
@@ -29,27 +35,146 @@ import ca.uqac.lif.parkbench.Experiment.Status;
  * <ol>
  * <li>The benchmark puts tests in the dispatcher's queue using
  *   {@link #putInQueue(Experiment)}.</li>
- * <li>The dispatcher periodically checks whether some tests are present
- *   in the queue (the infinite loop of method {@link #run()}, which
- *   calls {@link #check()}.</li>
- * <li>If this is the case, the dispatcher loops through its array
- *   of threads to see if any of them has stopped. If so, the
- *   dispatcher creates a new {@link TestThread}, pops into it the first test
- *   from the waiting queue, starts it and puts it into the
- *   array's vacant slot.</li>
+ * <li>Tests that depend on other tests (see
+ *   {@link Experiment#dependsOn(Experiment)}) are held aside until all
+ *   these tests are done. If one of them fails, the tests depending on
+ *   it are cancelled.</li>
+ * <li>Tests whose prerequisites are not fulfilled go first into a
+ *   separate queue. A small pool of {@link WorkerThread}s dedicated to
+ *   prerequisites generates them, and then moves each test to the queue
+ *   of tests ready to run. This way, generating input data never
+ *   occupies a thread used to run (and time) experiments.</li>
+ * <li>The dispatcher owns a pool of {@link WorkerThread}s, which live as
+ *   long as the dispatcher. Each worker repeatedly pulls the first test
+ *   from the queue of ready tests and runs it; a worker with nothing to do
+ *   sleeps until a test is queued. The order
+ *   in which queued tests are started is decided by the queue's
+ *   {@link SchedulingPolicy}; by default, the tests expected to run the
+ *   longest are started first. A test is started only if all the
+ *   dispatcher's {@link AdmissionRule}s admit it; otherwise, the worker
+ *   looks at the next one in the queue.</li>
+ * <li>Whenever a worker finishes a test, it notifies the dispatcher
+ *   through {@link #experimentFinished(WorkerThread, Experiment, long)} and
+ *   immediately pulls the next one.</li>
+ * <li>A {@link Watchdog}, running in its own thread, interrupts the tests
+ *   that exceed their maximum duration. The dispatcher's own thread
+ *   only wakes up every {@link #s_pollInterval} milliseconds, to adjust
+ *   the number of workers if it is in adaptive mode.</li>
  * </ol>
+ * The size of both pools can be changed at any time with
+ * {@link #setThreadCount(int)} and {@link #setPrerequisiteThreadCount(int)}.
+ * Surplus workers are retired: an idle worker leaves immediately, and a
+ * busy worker leaves once its current test is over. Queued tests are
+ * left untouched.
+ * <p>
+ * The waiting queue and the state of the workers are guarded by the
+ * dispatcher's monitor.
  */
 public class ThreadDispatcher implements Runnable
 {
 	/**
-	 * The array of threads managed by the dispatcher
+	 * The threads managed by the dispatcher. This includes retired
+	 * threads that have not finished their last test yet.
 	 */
-	protected final TestThread[] m_threads;
+	protected final List<WorkerThread> m_threads;
+	
+	/**
+	 * The threads used to generate prerequisites. This includes retired
+	 * threads that have not finished their last test yet.
+	 */
+	protected final List<WorkerThread> m_prereqThreads;
 	
 	/**
 	 * The queue of tests waiting to be started
 	 */
-	protected Queue<Experiment> m_testQueue;
+	protected ExperimentQueue m_testQueue;
+	
+	/**
+	 * The queue of tests waiting for their prerequisites to be generated
+	 */
+	protected ExperimentQueue m_prereqQueue;
+	
+	/**
+	 * The queued tests that wait for some of their dependencies to be
+	 * done, indexed by their ID
+	 */
+	protected final Map<Integer,Experiment> m_waiting;
+	
+	/**
+	 * For the ID of a test, the waiting tests that depend on it
+	 */
+	protected final Map<Integer,List<Experiment>> m_dependents;
+	
+	/**
+	 * The objects, such as sweeps, that will still put tests in the
+	 * queue. The dispatcher is not done as long as some remain.
+	 */
+	protected final Set<Object> m_producers;
+	
+	/**
+	 * The tests cancelled because of a dependency, whose listeners have
+	 * not been notified yet. See {@link #fireCancelled()}.
+	 */
+	protected final List<Experiment> m_cancelled;
+	
+	/**
+	 * The rules a test must pass before being started by a worker
+	 */
+	protected final List<AdmissionRule> m_rules;
+	
+	/**
+	 * The rule used in exclusive mode, if this mode is enabled
+	 */
+	protected ExclusiveRule m_exclusiveRule = null;
+	
+	/**
+	 * The rule limiting the use of shared resources, if some resource
+	 * has a capacity
+	 */
+	protected ResourceRule m_resourceRule = null;
+	
+	/**
+	 * The rule keeping the tests' heap footprint within a budget, or
+	 * null if there is no budget
+	 */
+	protected HeapBudgetRule m_heapRule = null;
+	
+	/**
+	 * Decides on the number of workers in adaptive mode, or null if
+	 * this mode is disabled
+	 */
+	protected AdaptiveThreadCount m_adaptive = null;
+	
+	/**
+	 * Whether the workers run on virtual threads
+	 * @see VirtualThreads
+	 */
+	protected boolean m_virtualThreads;
+	
+	/**
+	 * The number given to the next worker created
+	 */
+	protected int m_nextIndex = 0;
+	
+	/**
+	 * Whether the workers have been started
+	 */
+	protected boolean m_started = false;
+	
+	/**
+	 * Interrupts the tests that exceed their maximum duration
+	 */
+	protected final Watchdog m_watchdog;
+	
+	/**
+	 * Records metrics of the running experiments
+	 */
+	protected final MetricSampler m_sampler;
+	
+	/**
+	 * The listeners notified when a test finishes
+	 */
+	protected final List<ExperimentListener> m_listeners = new CopyOnWriteArrayList<ExperimentListener>();
 	
 	/**
 	 * A variable used as a semaphore to signal the dispatcher
@@ -58,32 +183,482 @@ public class ThreadDispatcher implements Runnable
 	protected boolean m_stop = false;
 	
 	/**
-	 * The time (in ms) before the dispatcher looks again for new
-	 * tests in its queue. Don't set it too low, it will clog your CPU.
+	 * The maximum time (in ms) the dispatcher waits before looking again
+	 * at its threads, if no test notifies it before. This only matters
+	 * for the adaptive mode; new tests are started as soon as a thread
+	 * becomes available.
 	 */
 	protected static int s_pollInterval = 1000;
 	
 	/**
-	 * Creates a new thread dispatcher
+	 * The time (in ms) after which the watchdog looks again at a test that
+	 * has a maximum duration, but has not started running yet (e.g.
+	 * because it is generating its prerequisites)
+	 */
+	protected static long s_watchdogRecheck = 10;
+	
+	/**
+	 * Creates a new thread dispatcher, with a single thread for
+	 * generating prerequisites
 	 * @param num_threads The number of threads that this dispatcher
 	 *   will manage
 	 */
 	public ThreadDispatcher(int num_threads)
+	{
+		this(num_threads, 1);
+	}
+	
+	/**
+	 * Creates a new thread dispatcher
+	 * @param num_threads The number of threads that this dispatcher
+	 *   will manage
+	 * @param num_prereq_threads The number of additional threads used to
+	 *   generate the prerequisites of tests
+	 */
+	public ThreadDispatcher(int num_threads, int num_prereq_threads)
+	{
+		this(num_threads, num_prereq_threads, false);
+	}
+	
+	/**
+	 * Creates a new thread dispatcher
+	 * @param num_threads The number of threads that this dispatcher
+	 *   will manage
+	 * @param num_prereq_threads The number of additional threads used to
+	 *   generate the prerequisites of tests
+	 * @param virtual_threads Set to true to run the workers on virtual
+	 *   threads, if the JVM supports them. This is mostly useful when the
+	 *   tests spend their time waiting for external commands; the number
+	 *   of commands running at once can then be bounded with
+	 *   {@link CommandRunner#setMaxProcesses(int)}.
+	 */
+	public ThreadDispatcher(int num_threads, int num_prereq_threads, boolean virtual_threads)
 	{
 		super();
-		m_threads = new TestThread[num_threads];
-		m_testQueue = new LinkedList<Experiment>();
+		m_virtualThreads = virtual_threads;
+		m_threads = new ArrayList<WorkerThread>();
+		m_prereqThreads = new ArrayList<WorkerThread>();
+		SchedulingPolicy policy = new LongestFirstPolicy();
+		m_testQueue = new ExperimentQueue(policy);
+		m_prereqQueue = new ExperimentQueue(policy);
+		m_rules = new ArrayList<AdmissionRule>();
+		m_waiting = new HashMap<Integer,Experiment>();
+		m_dependents = new HashMap<Integer,List<Experiment>>();
+		m_producers = new HashSet<Object>();
+		m_cancelled = new ArrayList<Experiment>();
+		m_watchdog = new Watchdog(this);
+		m_sampler = new MetricSampler(this);
+		resize(m_threads, num_threads, false);
+		resize(m_prereqThreads, num_prereq_threads, true);
+	}
+	
+	/**
+	 * Adds a rule that tests must pass before being started
+	 * @param rule The rule
+	 */
+	synchronized public void addAdmissionRule(AdmissionRule rule)
+	{
+		m_rules.add(rule);
+		notifyAll();
+	}
+	
+	/**
+	 * Removes a rule that tests must pass before being started
+	 * @param rule The rule
+	 */
+	synchronized public void removeAdmissionRule(AdmissionRule rule)
+	{
+		m_rules.remove(rule);
+		notifyAll();
+	}
+	
+	/**
+	 * Enables or disables the exclusive mode. In this mode, tests that are
+	 * timing-sensitive run alone, while the other tests and the
+	 * generation of prerequisites proceed in parallel. See
+	 * {@link ExclusiveRule}.
+	 * @param b Set to true to enable the exclusive mode
+	 */
+	synchronized public void setExclusiveMode(boolean b)
+	{
+		if (b && m_exclusiveRule == null)
+		{
+			m_exclusiveRule = new ExclusiveRule();
+			addAdmissionRule(m_exclusiveRule);
+		}
+		else if (!b && m_exclusiveRule != null)
+		{
+			removeAdmissionRule(m_exclusiveRule);
+			m_exclusiveRule = null;
+		}
+	}
+	
+	/**
+	 * Checks whether the exclusive mode is enabled
+	 * @return true if enabled, false otherwise
+	 */
+	synchronized public boolean getExclusiveMode()
+	{
+		return m_exclusiveRule != null;
+	}
+	
+	/**
+	 * Sets the capacity of a shared resource. Tests using this resource
+	 * (see {@link Experiment#setResource(String, int)}) are started only
+	 * while the sum of their weights fits in the capacity; tests that
+	 * do not fit are skipped, and other tests can start in the meantime.
+	 * See {@link ResourceRule}.
+	 * @param tag The name of the resource
+	 * @param capacity The capacity; 0 or less removes the limit
+	 */
+	synchronized public void setResourceCapacity(String tag, int capacity)
+	{
+		if (m_resourceRule == null)
+		{
+			m_resourceRule = new ResourceRule();
+			addAdmissionRule(m_resourceRule);
+		}
+		m_resourceRule.setCapacity(tag, capacity);
+		notifyAll();
+	}
+	
+	/**
+	 * Sets the amount of heap the running tests may use, according to
+	 * their {@link Experiment#estimateHeapFootprint(Parameters)}. By
+	 * default, there is no budget. See {@link HeapBudgetRule}.
+	 * @param budget The budget, in bytes; 0 or less removes the budget
+	 */
+	synchronized public void setHeapBudget(long budget)
+	{
+		if (budget > 0 && budget != Long.MAX_VALUE)
+		{
+			if (m_heapRule == null)
+			{
+				m_heapRule = new HeapBudgetRule(budget);
+				addAdmissionRule(m_heapRule);
+			}
+			m_heapRule.setBudget(budget);
+		}
+		else if (m_heapRule != null)
+		{
+			removeAdmissionRule(m_heapRule);
+			m_heapRule = null;
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Gets the amount of heap the running tests may use
+	 * @return The budget, in bytes, or 0 if there is no budget
+	 */
+	synchronized public long getHeapBudget()
+	{
+		if (m_heapRule == null)
+		{
+			return 0;
+		}
+		return m_heapRule.getBudget();
+	}
+	
+	/**
+	 * Adds a listener notified when a test finishes
+	 * @param l The listener
+	 */
+	public void addListener(ExperimentListener l)
+	{
+		m_listeners.add(l);
 	}
 	
 	/**
-	 * Puts a new test in the waiting queue
+	 * Removes a listener notified when a test finishes
+	 * @param l The listener
+	 */
+	public void removeListener(ExperimentListener l)
+	{
+		m_listeners.remove(l);
+	}
+	
+	/**
+	 * Notifies the listeners if a test has finished. This must be called
+	 * <em>without</em> holding the dispatcher's monitor, so that listeners
+	 * can take their time, or wait for other locks.
+	 * @param test The test
+	 */
+	protected void fireFinished(Experiment test)
+	{
+		Status s = test.getStatus();
+		if (s != Status.DONE && s != Status.FAILED && s != Status.TIMEOUT)
+		{
+			// Back in a queue: not over yet
+			return;
+		}
+		for (ExperimentListener l : m_listeners)
+		{
+			l.experimentFinished(test);
+		}
+	}
+	
+	/**
+	 * Sets the interval at which metrics of the running tests are
+	 * recorded. See {@link MetricSampler}.
+	 * @param interval The interval, in milliseconds; 0 or less disables
+	 *   the sampling
+	 */
+	public void setSamplingInterval(long interval)
+	{
+		m_sampler.setInterval(interval);
+	}
+	
+	/**
+	 * Gets the interval at which metrics of the running tests are
+	 * recorded
+	 * @return The interval, in milliseconds; 0 if sampling is disabled
+	 */
+	public long getSamplingInterval()
+	{
+		return m_sampler.getInterval();
+	}
+	
+	/**
+	 * Sets the policy deciding in what order the queued tests are started
+	 * @param policy The policy
+	 */
+	synchronized public void setSchedulingPolicy(SchedulingPolicy policy)
+	{
+		m_testQueue.setPolicy(policy);
+		m_prereqQueue.setPolicy(policy);
+	}
+	
+	/**
+	 * Sets how many times a queued test can be skipped by the admission
+	 * rules before the dispatcher waits for it. See
+	 * {@link ExperimentQueue#setMaxSkips(int)}.
+	 * @param n The number of times; 0 or less means no limit
+	 */
+	synchronized public void setMaxSkips(int n)
+	{
+		m_testQueue.setMaxSkips(n);
+		m_prereqQueue.setMaxSkips(n);
+		notifyAll();
+	}
+	
+	/**
+	 * Enables or disables the adaptive mode. In this mode, the dispatcher
+	 * periodically asks an {@link AdaptiveThreadCount} how many workers
+	 * should run tests, depending on the load of the machine.
+	 * @param adaptive The object deciding on the number of workers, or
+	 *   null to disable the adaptive mode. In the latter case, the
+	 *   number of workers stays as it is.
+	 */
+	synchronized public void setAdaptive(AdaptiveThreadCount adaptive)
+	{
+		m_adaptive = adaptive;
+	}
+	
+	/**
+	 * Gets the object deciding on the number of workers in adaptive mode
+	 * @return The object, or null if the adaptive mode is disabled
+	 */
+	synchronized public AdaptiveThreadCount getAdaptive()
+	{
+		return m_adaptive;
+	}
+	
+	/**
+	 * Puts a new test in the waiting queue. If some of the tests it
+	 * depends on are not done, it waits for them first; if one of them
+	 * has failed, the test is cancelled. If its prerequisites are not
+	 * fulfilled, it is first put in the queue of prerequisites to generate.
+	 * The tests it depends on must have been put in the queue before,
+	 * or be done. A test that is already queued or running is left
+	 * where it is.
 	 * @param t The test to put in the queue
 	 */
-	synchronized public void putInQueue(Experiment t)
+	public void putInQueue(Experiment t)
+	{
+		enqueue(t);
+		fireCancelled();
+	}
+	
+	/**
+	 * Does the work of {@link #putInQueue(Experiment)} while holding the
+	 * dispatcher's monitor
+	 * @param t The test to put in the queue
+	 */
+	synchronized protected void enqueue(Experiment t)
 	{
 		//System.out.println("Test added with ID " + t.getId());
+		if (isInProgress(t))
+		{
+			return;
+		}
+		t.resetPhases();
 		t.setStatus(Experiment.Status.QUEUED);
-		m_testQueue.add(t);
+		t.startRepetitions();
+		List<Experiment> pending = new ArrayList<Experiment>();
+		for (Experiment dep : t.getDependencies())
+		{
+			Status s = dep.getStatus();
+			if (s == Status.FAILED || s == Status.TIMEOUT)
+			{
+				cancelDependent(t, dep);
+				return;
+			}
+			if (s != Status.DONE)
+			{
+				pending.add(dep);
+			}
+		}
+		if (!pending.isEmpty())
+		{
+			m_waiting.put(t.getId(), t);
+			for (Experiment dep : pending)
+			{
+				List<Experiment> dependents = m_dependents.get(dep.getId());
+				if (dependents == null)
+				{
+					dependents = new ArrayList<Experiment>();
+					m_dependents.put(dep.getId(), dependents);
+				}
+				dependents.add(t);
+			}
+			return;
+		}
+		release(t);
+	}
+	
+	/**
+	 * Determines if a test is in the hands of the dispatcher, i.e. if it
+	 * is queued, waiting for its dependencies, or running
+	 * @param t The test
+	 * @return true if it is, false otherwise
+	 */
+	protected static boolean isInProgress(Experiment t)
+	{
+		Status s = t.getStatus();
+		return s == Status.QUEUED || s == Status.PREREQUISITES || s == Status.RUNNING;
+	}
+	
+	/**
+	 * Declares that an object will still put tests in the queue. Until
+	 * it is removed with {@link #removeProducer(Object)}, the dispatcher
+	 * is not considered done, even if it has nothing left to run.
+	 * @param o The object
+	 */
+	synchronized public void addProducer(Object o)
+	{
+		m_producers.add(o);
+	}
+	
+	/**
+	 * Declares that an object will no longer put tests in the queue
+	 * @param o The object
+	 */
+	synchronized public void removeProducer(Object o)
+	{
+		m_producers.remove(o);
+		notifyAll();
+	}
+	
+	/**
+	 * Puts a test whose dependencies are done in the queue of tests ready
+	 * to run, or in the queue of prerequisites to generate
+	 * @param t The test
+	 */
+	synchronized protected void release(Experiment t)
+	{
+		if (prerequisiteThreadCount() > 0 && !t.prerequisitesFulilled(t.getParameters()))
+		{
+			m_prereqQueue.add(t);
+		}
+		else
+		{
+			m_testQueue.add(t);
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Called when a test leaves the dispatcher, whether it is done or
+	 * not. The waiting tests that depend on it are released if all their
+	 * dependencies are now done, or cancelled if this test is not done.
+	 * @param test The test
+	 */
+	synchronized protected void dependencyFinished(Experiment test)
+	{
+		List<Experiment> dependents = m_dependents.remove(test.getId());
+		if (dependents == null)
+		{
+			return;
+		}
+		for (Experiment t : dependents)
+		{
+			if (!m_waiting.containsKey(t.getId()))
+			{
+				// Already cancelled because of another dependency
+				continue;
+			}
+			if (test.getStatus() != Status.DONE)
+			{
+				cancelDependent(t, test);
+				continue;
+			}
+			boolean ready = true;
+			for (Experiment dep : t.getDependencies())
+			{
+				if (dep.getStatus() != Status.DONE)
+				{
+					ready = false;
+					break;
+				}
+			}
+			if (ready)
+			{
+				m_waiting.remove(t.getId());
+				release(t);
+			}
+		}
+	}
+	
+	/**
+	 * Cancels a queued test because one of its dependencies is not done,
+	 * and in turn the tests that depend on it. The listeners are told
+	 * about these tests by the next call to {@link #fireCancelled()}.
+	 * @param t The test
+	 * @param dep The dependency
+	 */
+	synchronized protected void cancelDependent(Experiment t, Experiment dep)
+	{
+		m_waiting.remove(t.getId());
+		t.setFailureMessage("Dependency " + dep.getId() + " did not complete");
+		t.stopWithStatus(Status.FAILED);
+		m_cancelled.add(t);
+		dependencyFinished(t);
+		notifyAll();
+	}
+	
+	/**
+	 * Notifies the listeners of the tests cancelled because of a
+	 * dependency since the last call. Like
+	 * {@link #fireFinished(Experiment)}, this must be called
+	 * <em>without</em> holding the dispatcher's monitor.
+	 */
+	protected void fireCancelled()
+	{
+		List<Experiment> cancelled;
+		synchronized (this)
+		{
+			if (m_cancelled.isEmpty())
+			{
+				return;
+			}
+			cancelled = new ArrayList<Experiment>(m_cancelled);
+			m_cancelled.clear();
+		}
+		for (Experiment t : cancelled)
+		{
+			fireFinished(t);
+		}
 	}
 	
 	/**
@@ -91,69 +666,249 @@ public class ThreadDispatcher implements Runnable
 	 */
 	synchronized public void stopAll()
 	{
-		for (int i = 0; i < m_threads.length; i++)
+		for (WorkerThread th : m_threads)
+		{
+			th.cancelCurrent();
+		}
+		for (WorkerThread th : m_prereqThreads)
+		{
+			th.cancelCurrent();
+		}
+	}
+	
+	/**
+	 * Looks for tests that have exceeded their running time, and
+	 * interrupts them. This method is called by the {@link Watchdog}.
+	 * @return The value of <tt>System.nanoTime()</tt> when this method
+	 *   should be called again, or <tt>Long.MAX_VALUE</tt> if no running
+	 *   test has a maximum duration
+	 */
+	synchronized protected long killExpired()
+	{
+		long now = System.nanoTime();
+		long next = Long.MAX_VALUE;
+		for (WorkerThread th : m_threads)
 		{
-			TestThread th = m_threads[i];
-			if (th != null)
+			Experiment test = th.m_test;
+			if (test == null || th.m_timedOut)
+			{
+				continue;
+			}
+			long deadline = test.getDeadline();
+			if (deadline == Long.MAX_VALUE)
+			{
+				continue;
+			}
+			if (deadline < 0)
+			{
+				// Not running yet: look again shortly
+				deadline = now + TimeUnit.MILLISECONDS.toNanos(s_watchdogRecheck);
+			}
+			else if (deadline - now <= 0)
+			{
+				// This test can be interrupted
+				th.timeout();
+				continue;
+			}
+			if (next == Long.MAX_VALUE || deadline - next < 0)
 			{
-				th.interrupt();
+				next = deadline;
 			}
 		}
+		return next;
 	}
 	
 	/**
-	 * Looks for terminated threads so
-	 * that tests waiting in the queue can be started.
+	 * Performs periodic tasks on the threads. In adaptive mode, this
+	 * adjusts the number of workers.
 	 */
 	synchronized protected void check()
 	{
-		for (int i = 0; i < m_threads.length; i++)
+		if (m_adaptive != null)
 		{
-			TestThread th = m_threads[i];
-			if (th != null && th.isAlive())
+			int current = threadCount();
+			int n = m_adaptive.getThreadCount(current, !m_testQueue.isEmpty());
+			if (n != current)
 			{
-				if (th.m_test.canKill())
-				{
-					// This test can be interrupted
-					th.interrupt();
-					th.m_test.setStatus(Experiment.Status.TIMEOUT);
-				}
-				else
+				setThreadCount(n);
+			}
+		}
+	}
+	
+	/**
+	 * Gives the next test to run to a worker. The worker waits until
+	 * a test is available in the queue.
+	 * @param th The worker asking for a test
+	 * @return The test to run, or null if the dispatcher has been stopped
+	 *   or if the worker has been retired
+	 */
+	synchronized protected Experiment nextExperiment(WorkerThread th)
+	{
+		while (!m_stop && !th.m_retired)
+		{
+			Experiment test = null;
+			boolean checked = false;
+			if (th.m_prerequisites)
+			{
+				test = m_prereqQueue.poll();
+			}
+			else
+			{
+				test = m_testQueue.poll(m_rules, getRunning());
+				checked = prerequisiteThreadCount() > 0;
+			}
+			if (test != null && checked && !test.prerequisitesFulilled(test.getParameters()))
+			{
+				// Prerequisites have disappeared since the test was queued:
+				// send it back rather than generating them in this thread
+				m_prereqQueue.add(test);
+				notifyAll();
+				continue;
+			}
+			if (test != null)
+			{
+				//System.out.println("Test ID " + test.getId() + " assigned to thread #" + th.m_index);
+				th.m_test = test;
+				th.m_prerequisitesChecked = checked;
+				if (!th.m_prerequisites && test.getTimeout(TimeUnit.NANOSECONDS) > 0)
 				{
-					Experiment.Status st = th.m_test.getStatus();
-					if (!(st == Experiment.Status.FAILED || st == Experiment.Status.DONE || 
-							st == Experiment.Status.TIMEOUT))
-					{
-						continue;
-					}
+					m_watchdog.wakeUp();
 				}
+				return test;
 			}
-			// This thread has finished its execution, and a test is
-			// waiting to be run
-			Experiment test = m_testQueue.poll();
-			if (test != null)
+			try
 			{
-				//System.out.println("Test ID " + test.getId() + " assigned to thread #" + i);
-				TestThread th_new = new TestThread(test);
-				th_new.start();
-				m_threads[i] = th_new;
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				// Only happens if the worker is stopped from outside
 				break;
 			}
 		}
+		// The worker leaves
+		m_threads.remove(th);
+		m_prereqThreads.remove(th);
+		notifyAll();
+		return null;
+	}
+	
+	/**
+	 * Gets the tests currently run by the workers (excluding those
+	 * generating prerequisites)
+	 * @return The tests
+	 */
+	synchronized protected List<Experiment> getRunning()
+	{
+		List<Experiment> out = new ArrayList<Experiment>(m_threads.size());
+		for (WorkerThread th : m_threads)
+		{
+			Experiment test = th.m_test;
+			if (test != null)
+			{
+				out.add(test);
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Callback invoked by a {@link WorkerThread} when the test it runs is
+	 * over. This marks the worker as available, and wakes up anybody
+	 * waiting in {@link #waitUntilDone(long)}. If the worker was generating
+	 * the test's prerequisites, the test is moved to the queue of tests
+	 * ready to run.
+	 * @param th The worker that has finished
+	 * @param test The test that is over
+	 * @param duration The time the test spent in the worker, in nanoseconds
+	 */
+	synchronized protected void experimentFinished(WorkerThread th, Experiment test, long duration)
+	{
+		th.m_test = null;
+		if (th.m_timedOut)
+		{
+			// Whatever the test did after being interrupted, it timed out
+			th.m_timedOut = false;
+			test.setStatus(Status.TIMEOUT);
+		}
+		if (th.m_prerequisites)
+		{
+			if (test.getStatus() == Status.PREREQUISITES)
+			{
+				// Prerequisites are ready, and the test was not cancelled
+				test.setStatus(Status.QUEUED);
+				m_testQueue.add(test);
+			}
+			else
+			{
+				dependencyFinished(test);
+			}
+		}
+		else if (test.needsMoreRepetitions())
+		{
+			// Interleaved repetitions: back to the end of the queue
+			test.setStatus(Status.QUEUED);
+			m_testQueue.add(test);
+		}
+		else
+		{
+			if (test.getStatus() == Status.DONE)
+			{
+				// Let the scheduling policy learn from this execution; the
+				// queue of prerequisites shares the policy, and is reordered
+				// along with the queue of tests
+				if (m_testQueue.experimentFinished(test, duration))
+				{
+					m_prereqQueue.reorder(test.getName());
+				}
+			}
+			dependencyFinished(test);
+		}
+		// Clear any interruption aimed at the test that just ended, so
+		// that it does not leak into the next one
+		Thread.interrupted();
+		notifyAll();
 	}
 
 	@Override
 	public void run()
 	{
-		while (!m_stop)
+		synchronized (this)
 		{
-			check();
-			// Wait some time before trying again
-			try {
-			    Thread.sleep(s_pollInterval);
-			} catch(InterruptedException ex) {
-			    Thread.currentThread().interrupt();
+			m_started = true;
+			Thread watchdog = new Thread(m_watchdog, "ParkBench watchdog");
+			watchdog.setDaemon(true);
+			watchdog.start();
+			Thread sampler = new Thread(m_sampler, "ParkBench sampler");
+			sampler.setDaemon(true);
+			sampler.start();
+			for (WorkerThread th : m_threads)
+			{
+				th.start(m_virtualThreads);
+			}
+			for (WorkerThread th : m_prereqThreads)
+			{
+				th.start(m_virtualThreads);
+			}
+			while (!m_stop)
+			{
+				check();
+				// Wait until the poll interval expires
+				try
+				{
+					wait(s_pollInterval);
+				}
+				catch (InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+					break;
+				}
 			}
+			// Let idle workers leave; busy ones leave after their test
+			m_stop = true;
+			m_watchdog.stop();
+			m_sampler.stop();
+			notifyAll();
 		}
 	}
 	
@@ -165,15 +920,151 @@ public class ThreadDispatcher implements Runnable
 	synchronized public void stop()
 	{
 		m_stop = true;
+		notifyAll();
 	}
 	
 	/**
-	 * Returns the number of threads managed by this dispatcher
+	 * Returns the number of threads managed by this dispatcher. Retired
+	 * threads still finishing a test are not counted.
 	 * @return The number of threads
 	 */
 	synchronized public int threadCount()
 	{
-		return m_threads.length;
+		return activeCount(m_threads);
+	}
+	
+	/**
+	 * Returns the number of threads used to generate prerequisites.
+	 * Retired threads still finishing a test are not counted.
+	 * @return The number of threads
+	 */
+	synchronized public int prerequisiteThreadCount()
+	{
+		return activeCount(m_prereqThreads);
+	}
+	
+	/**
+	 * Changes the number of threads running tests. This can be done while
+	 * tests are running, and does not affect the queue.
+	 * @param num_threads The number of threads
+	 */
+	synchronized public void setThreadCount(int num_threads)
+	{
+		resize(m_threads, num_threads, false);
+	}
+	
+	/**
+	 * Changes the number of threads generating prerequisites. This can be
+	 * done while tests are running. If the number is set to 0, the tests
+	 * waiting for their prerequisites are moved to the queue of tests
+	 * ready to run, and generate their prerequisites themselves.
+	 * @param num_threads The number of threads
+	 */
+	synchronized public void setPrerequisiteThreadCount(int num_threads)
+	{
+		resize(m_prereqThreads, num_threads, true);
+		if (num_threads <= 0)
+		{
+			m_testQueue.addAll(m_prereqQueue);
+			m_prereqQueue.clear();
+		}
+	}
+	
+	/**
+	 * Sets whether the workers run on virtual threads. Existing workers
+	 * are retired and replaced by new ones. See
+	 * {@link Benchmark#setVirtualThreads(boolean)} for the limits of
+	 * virtual workers.
+	 * @param b Set to true to use virtual threads
+	 */
+	synchronized public void setVirtualThreads(boolean b)
+	{
+		if (b == m_virtualThreads)
+		{
+			return;
+		}
+		m_virtualThreads = b;
+		int num_threads = threadCount(), num_prereq_threads = prerequisiteThreadCount();
+		resize(m_threads, 0, false);
+		resize(m_threads, num_threads, false);
+		resize(m_prereqThreads, 0, true);
+		resize(m_prereqThreads, num_prereq_threads, true);
+	}
+	
+	/**
+	 * Checks whether the workers run on virtual threads
+	 * @return true if they do, false otherwise
+	 */
+	synchronized public boolean usesVirtualThreads()
+	{
+		return m_virtualThreads && VirtualThreads.isSupported();
+	}
+	
+	/**
+	 * Brings the number of active workers in a pool to a given value.
+	 * Missing workers are created (and started if the dispatcher runs);
+	 * surplus workers are retired, idle ones first.
+	 * @param pool The pool of workers
+	 * @param size The number of workers to have
+	 * @param prerequisites Whether the workers of this pool generate
+	 *   prerequisites
+	 */
+	synchronized protected void resize(List<WorkerThread> pool, int size, boolean prerequisites)
+	{
+		int active = activeCount(pool);
+		for (; active < size; active++)
+		{
+			WorkerThread th = new WorkerThread(this, m_nextIndex++, prerequisites);
+			pool.add(th);
+			if (m_started)
+			{
+				th.start(m_virtualThreads);
+			}
+		}
+		for (int pass = 0; pass < 2 && active > size; pass++)
+		{
+			// First pass: retire idle workers; second pass: busy ones
+			for (int i = pool.size() - 1; i >= 0 && active > size; i--)
+			{
+				WorkerThread th = pool.get(i);
+				if (!th.m_retired && (pass == 1 || th.m_test == null))
+				{
+					th.m_retired = true;
+					active--;
+				}
+			}
+		}
+		if (!m_started)
+		{
+			// Retired workers were never started: just drop them
+			Iterator<WorkerThread> it = pool.iterator();
+			while (it.hasNext())
+			{
+				if (it.next().m_retired)
+				{
+					it.remove();
+				}
+			}
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Counts the workers of a pool that are not retired
+	 * @param pool The pool
+	 * @return The number of workers
+	 */
+	protected static int activeCount(List<WorkerThread> pool)
+	{
+		int count = 0;
+		for (WorkerThread th : pool)
+		{
+			if (!th.m_retired)
+			{
+				count++;
+			}
+		}
+		return count;
 	}
 	
 	/**
@@ -182,26 +1073,81 @@ public class ThreadDispatcher implements Runnable
 	 * @param test_id The id of the test to stop
 	 * @return true if a test was found and cancelled, false otherwise
 	 */
-	synchronized public boolean cancel(int test_id)
+	public boolean cancel(int test_id)
+	{
+		boolean found = cancelTest(test_id);
+		// The tests depending on it may have been cancelled as well
+		fireCancelled();
+		return found;
+	}
+	
+	/**
+	 * Does the work of {@link #cancel(int)} while holding the
+	 * dispatcher's monitor
+	 * @param test_id The id of the test to stop
+	 * @return true if a test was found and cancelled, false otherwise
+	 */
+	synchronized protected boolean cancelTest(int test_id)
 	{
 		// First, look in the threads if the test is there
-		for (int i = 0; i < m_threads.length; i++)
+		if (cancel(m_threads, test_id) || cancel(m_prereqThreads, test_id))
+		{
+			return true;
+		}
+		// If we get here, then the test we look for was not in a thread.
+		// Let's look for it in the waiting queues...
+		Experiment t = cancel(m_testQueue, test_id);
+		if (t == null)
+		{
+			t = cancel(m_prereqQueue, test_id);
+		}
+		if (t == null)
+		{
+			t = m_waiting.remove(test_id);
+			if (t != null)
+			{
+				t.stopWithStatus(Status.NOT_DONE);
+			}
+		}
+		if (t == null)
+		{
+			// No success!
+			return false;
+		}
+		// The tests depending on this one can no longer run
+		dependencyFinished(t);
+		return true;
+	}
+	
+	/**
+	 * Interrupts a test if it is run by one of the threads in a pool
+	 * @param threads The threads
+	 * @param test_id The id of the test to stop
+	 * @return true if the test was found, false otherwise
+	 */
+	protected static boolean cancel(List<WorkerThread> threads, int test_id)
+	{
+		for (WorkerThread th : threads)
 		{
-			TestThread th = m_threads[i];
 			if (th.getTestId() == test_id)
 			{
-				if (th.isAlive())
-				{
-					// Test is running: stop it
-					th.interrupt();
-				}
-				// We found it; leave
+				// Test is running: stop it
+				th.cancelCurrent();
 				return true;
 			}
 		}
-		// If we get here, then the test we look for was not in a thread.
-		// Let's look for it in the waiting queue...
-		Iterator<Experiment> t_it = m_testQueue.iterator();
+		return false;
+	}
+	
+	/**
+	 * Removes a test from a waiting queue
+	 * @param queue The queue
+	 * @param test_id The id of the test to remove
+	 * @return The test, or null if it was not found
+	 */
+	protected static Experiment cancel(ExperimentQueue queue, int test_id)
+	{
+		Iterator<Experiment> t_it = queue.iterator();
 		while (t_it.hasNext())
 		{
 			Experiment t = t_it.next();
@@ -213,66 +1159,237 @@ public class ThreadDispatcher implements Runnable
 				// NOT_DONE state (rather than FAILED)
 				t.stopWithStatus(Status.NOT_DONE);
 				t_it.remove();
-				return true;
+				return t;
 			}
 		}
-		// No success!
-		return false;
+		return null;
 	}
 	
 	/**
 	 * Checks if the dispatcher is done. This is the case when the input
-	 * queue is empty and all tests in the threads are finished or
-	 * interrupted. 
+	 * queue is empty, all tests in the threads are finished or
+	 * interrupted, and no object declared with
+	 * {@link #addProducer(Object)} will add more tests.
 	 * @return true if all done, false otherwise
 	 */
-	public boolean allDone()
+	synchronized public boolean allDone()
 	{
-		if (!m_testQueue.isEmpty())
+		if (!m_testQueue.isEmpty() || !m_prereqQueue.isEmpty() || !m_waiting.isEmpty()
+				|| !m_producers.isEmpty())
 		{
 			return false;
 		}
-		for (int i = 0; i < m_threads.length; i++)
+		for (WorkerThread th : m_threads)
+		{
+			if (th.m_test != null)
+			{
+				return false;
+			}
+		}
+		for (WorkerThread th : m_prereqThreads)
 		{
-			Thread th = m_threads[i];
-			if (th != null && th.isAlive())
+			if (th.m_test != null)
 			{
 				return false;
 			}
 		}
 		return true;
 	}
+	
+	/**
+	 * Blocks until the dispatcher is done, or until some time has
+	 * elapsed. Contrary to calling {@link #allDone()} in a loop, the caller
+	 * is woken up as soon as the last test finishes.
+	 * @param timeout The maximum time to wait (in ms). A value of 0 means
+	 *   to wait indefinitely.
+	 * @return true if all done, false if the timeout expired before
+	 * @throws InterruptedException If the calling thread is interrupted
+	 *   while waiting
+	 */
+	synchronized public boolean waitUntilDone(long timeout) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!allDone())
+		{
+			long remaining = deadline - System.currentTimeMillis();
+			if (timeout > 0 && remaining <= 0)
+			{
+				return false;
+			}
+			wait(timeout > 0 ? remaining : 0);
+		}
+		return true;
+	}
 
 	/**
-	 * A special case of thread used to run tests
+	 * A long-lived thread that repeatedly takes tests from one of the
+	 * dispatcher's queues and either runs them, or generates their
+	 * prerequisites. The worker runs either on a platform thread or on
+	 * a virtual thread.
 	 */
-	protected static class TestThread extends Thread
+	protected static class WorkerThread implements Runnable
 	{
 		/**
-		 * The test contained by that thread
+		 * The test currently run by that thread, or null if the
+		 * thread is idle. This field is only modified while holding
+		 * the dispatcher's monitor.
+		 */
+		protected volatile Experiment m_test;
+		
+		/**
+		 * The dispatcher this worker takes its tests from
+		 */
+		protected final ThreadDispatcher m_dispatcher;
+		
+		/**
+		 * The number of this worker, used in its name
+		 */
+		protected final int m_index;
+		
+		/**
+		 * Whether this worker generates prerequisites (true) or runs
+		 * tests (false)
+		 */
+		protected final boolean m_prerequisites;
+		
+		/**
+		 * Whether the dispatcher has made sure that the prerequisites of
+		 * the current test are fulfilled
 		 */
-		protected Experiment m_test;
+		protected boolean m_prerequisitesChecked = false;
 		
-		public TestThread(Experiment t)
+		/**
+		 * Whether the worker must leave once its current test is over.
+		 * This field is only accessed while holding the dispatcher's
+		 * monitor.
+		 */
+		protected boolean m_retired = false;
+		
+		/**
+		 * Whether the current test was interrupted for exceeding its
+		 * maximum duration. This field is only accessed while holding the
+		 * dispatcher's monitor.
+		 */
+		protected boolean m_timedOut = false;
+		
+		/**
+		 * The thread running this worker, or null if not started
+		 */
+		protected Thread m_thread = null;
+		
+		public WorkerThread(ThreadDispatcher dispatcher, int index, boolean prerequisites)
 		{
-			super(t);
-			m_test = t;
+			super();
+			m_dispatcher = dispatcher;
+			m_index = index;
+			m_prerequisites = prerequisites;
+		}
+		
+		/**
+		 * Starts the thread running this worker
+		 * @param virtual Set to true to use a virtual thread
+		 */
+		protected void start(boolean virtual)
+		{
+			String name = (m_prerequisites ? "ParkBench prerequisites " : "ParkBench worker ") + m_index;
+			m_thread = VirtualThreads.newThread(this, name, virtual);
+			m_thread.start();
 		}
 		
 		/**
 		 * Gets the ID of the test contained in that thread
-		 * @return The ID
+		 * @return The ID, or -1 if the thread is idle
 		 */
 		public int getTestId()
 		{
-			return m_test.getId();
+			Experiment test = m_test;
+			if (test == null)
+			{
+				return -1;
+			}
+			return test.getId();
+		}
+		
+		/**
+		 * Interrupts the test currently run by this worker, if any. The
+		 * worker itself keeps running and will pick the next test in the
+		 * queue. This must be called while holding the dispatcher's monitor.
+		 */
+		protected void cancelCurrent()
+		{
+			Experiment test = m_test;
+			if (test != null)
+			{
+				test.stopWithStatus(Experiment.Status.FAILED);
+				m_thread.interrupt();
+			}
+		}
+		
+		/**
+		 * Interrupts the test currently run by this worker because it
+		 * exceeded its maximum duration. Anything the test runs outside of
+		 * this thread, such as external processes, is killed. This must be
+		 * called while holding the dispatcher's monitor.
+		 */
+		protected void timeout()
+		{
+			Experiment test = m_test;
+			if (test != null)
+			{
+				m_timedOut = true;
+				test.timeout();
+				test.kill();
+				m_thread.interrupt();
+			}
 		}
 		
 		@Override
-		public void interrupt()
+		public void run()
 		{
-			m_test.stopWithStatus(Experiment.Status.FAILED);
-			super.interrupt();
+			Experiment test = null;
+			String name = Thread.currentThread().getName();
+			while ((test = m_dispatcher.nextExperiment(this)) != null)
+			{
+				long start_time = System.nanoTime();
+				// Tells which experiment a thread runs, e.g. in a thread dump
+				// or in the events of the Flight Recorder
+				Thread.currentThread().setName(name + " [experiment " + test.getId() + "]");
+				try
+				{
+					if (m_prerequisites)
+					{
+						test.generatePrerequisites();
+					}
+					else if (m_prerequisitesChecked || test.prepare())
+					{
+						// Prerequisites were taken care of by another thread,
+						// or have just been generated by this one
+						test.measure();
+					}
+				}
+				catch (RuntimeException e)
+				{
+					// Don't let a faulty test take down the worker
+					e.printStackTrace();
+					test.setFailureMessage(e.toString());
+					test.stopWithStatus(Experiment.Status.FAILED);
+				}
+				catch (OutOfMemoryError e)
+				{
+					// The memory held by the test is released when it leaves;
+					// the other tests and the benchmark can go on
+					test.setFailureMessage("Out of memory");
+					test.stopWithStatus(Experiment.Status.FAILED);
+				}
+				finally
+				{
+					Thread.currentThread().setName(name);
+					m_dispatcher.experimentFinished(this, test, System.nanoTime() - start_time);
+				}
+				m_dispatcher.fireFinished(test);
+				// Tests depending on this one may have been cancelled
+				m_dispatcher.fireCancelled();
+			}
 		}
 	}
 }
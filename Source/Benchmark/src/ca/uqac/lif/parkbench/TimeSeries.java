@@ -0,0 +1,170 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import ca.uqac.lif.json.JsonElement;
+import ca.uqac.lif.json.JsonList;
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonNumber;
+
+/**
+ * Sequence of values of a metric taken over time. The points are kept
+ * in two arrays of primitive types, which grow as needed, rather than
+ * as objects. Times are in milliseconds since the beginning of the
+ * series.
+ * 
+ * @author Sylvain Hallé
+ */
+public class TimeSeries
+{
+	/**
+	 * The time of each point
+	 */
+	protected int[] m_times;
+	
+	/**
+	 * The value of each point
+	 */
+	protected float[] m_values;
+	
+	/**
+	 * The number of points
+	 */
+	protected int m_size = 0;
+	
+	/**
+	 * Creates an empty time series
+	 */
+	public TimeSeries()
+	{
+		super();
+		m_times = new int[16];
+		m_values = new float[16];
+	}
+	
+	/**
+	 * Adds a point at the end of the series
+	 * @param time The time of the point, in milliseconds
+	 * @param value The value of the point
+	 */
+	public synchronized void add(int time, float value)
+	{
+		if (m_size == m_times.length)
+		{
+			int capacity = Math.max(16, m_size * 2);
+			int[] times = new int[capacity];
+			float[] values = new float[capacity];
+			System.arraycopy(m_times, 0, times, 0, m_size);
+			System.arraycopy(m_values, 0, values, 0, m_size);
+			m_times = times;
+			m_values = values;
+		}
+		m_times[m_size] = time;
+		m_values[m_size] = value;
+		m_size++;
+	}
+	
+	/**
+	 * Releases the space reserved for points that have not been added
+	 */
+	public synchronized void trimToSize()
+	{
+		if (m_size < m_times.length)
+		{
+			int[] times = new int[m_size];
+			float[] values = new float[m_size];
+			System.arraycopy(m_times, 0, times, 0, m_size);
+			System.arraycopy(m_values, 0, values, 0, m_size);
+			m_times = times;
+			m_values = values;
+		}
+	}
+	
+	/**
+	 * Gets the number of points in the series
+	 * @return The number of points
+	 */
+	public synchronized int size()
+	{
+		return m_size;
+	}
+	
+	/**
+	 * Gets the time of a point
+	 * @param index The index of the point
+	 * @return The time, in milliseconds
+	 */
+	public synchronized int getTime(int index)
+	{
+		return m_times[index];
+	}
+	
+	/**
+	 * Gets the value of a point
+	 * @param index The index of the point
+	 * @return The value
+	 */
+	public synchronized float getValue(int index)
+	{
+		return m_values[index];
+	}
+	
+	/**
+	 * Converts the series to JSON, as a list of times and a list of
+	 * values
+	 * @return The JSON structure
+	 */
+	public synchronized JsonMap toJson()
+	{
+		JsonList times = new JsonList();
+		JsonList values = new JsonList();
+		for (int i = 0; i < m_size; i++)
+		{
+			times.add(m_times[i]);
+			values.add(m_values[i]);
+		}
+		JsonMap out = new JsonMap();
+		out.put("t", times);
+		out.put("v", values);
+		return out;
+	}
+	
+	/**
+	 * Creates a series from a JSON structure produced by
+	 * {@link #toJson()}
+	 * @param json The JSON structure
+	 * @return The series
+	 */
+	public static TimeSeries fromJson(JsonMap json)
+	{
+		TimeSeries series = new TimeSeries();
+		JsonList times = (JsonList) json.get("t");
+		JsonList values = (JsonList) json.get("v");
+		if (times == null || values == null)
+		{
+			return series;
+		}
+		int i = 0;
+		for (JsonElement time : times)
+		{
+			JsonElement value = values.get(i++);
+			series.add(((JsonNumber) time).numberValue().intValue(), ((JsonNumber) value).numberValue().floatValue());
+		}
+		return series;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates threads that are either regular (platform) threads, or virtual
+ * threads when the JVM provides them (Java 21 and later). Virtual threads
+ * are cheap to create and to block, which suits threads that spend their
+ * time waiting for an external command. Since ParkBench must still run on
+ * older JVMs, virtual threads are obtained by reflection; when they are
+ * not available, regular threads are created instead.
+ * 
+ * @author Sylvain Hallé
+ */
+public class VirtualThreads
+{
+	/**
+	 * The factory creating virtual threads, or null if the JVM does not
+	 * support them
+	 */
+	protected static final ThreadFactory s_virtualFactory = createVirtualFactory();
+	
+	private VirtualThreads()
+	{
+		super();
+	}
+	
+	/**
+	 * Checks whether the JVM supports virtual threads
+	 * @return true if virtual threads are supported, false otherwise
+	 */
+	public static boolean isSupported()
+	{
+		return s_virtualFactory != null;
+	}
+	
+	/**
+	 * Creates a new (unstarted) thread
+	 * @param r The code the thread will run
+	 * @param name The name of the thread
+	 * @param virtual Set to true to create a virtual thread, if the JVM
+	 *   supports them
+	 * @return The thread
+	 */
+	public static Thread newThread(Runnable r, String name, boolean virtual)
+	{
+		Thread t = null;
+		if (virtual && s_virtualFactory != null)
+		{
+			t = s_virtualFactory.newThread(r);
+			t.setName(name);
+		}
+		else
+		{
+			t = new Thread(r, name);
+		}
+		return t;
+	}
+	
+	/**
+	 * Gets the factory of virtual threads through
+	 * <tt>Thread.ofVirtual().factory()</tt>
+	 * @return The factory, or null if not available
+	 */
+	private static ThreadFactory createVirtualFactory()
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch (Exception e)
+		{
+			// Not supported by this JVM
+			return null;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench;
+
+/**
+ * Interrupts the experiments of a {@link ThreadDispatcher} that exceed
+ * their maximum duration. The watchdog runs in its own thread, and
+ * sleeps until the earliest deadline among the running experiments,
+ * which are compared with <tt>System.nanoTime()</tt>. This way, a timeout
+ * is enforced within a few milliseconds, regardless of the dispatcher's
+ * poll interval.
+ * 
+ * @author Sylvain Hallé
+ */
+public class Watchdog implements Runnable
+{
+	/**
+	 * The dispatcher whose experiments are watched
+	 */
+	protected final ThreadDispatcher m_dispatcher;
+	
+	/**
+	 * Whether an experiment has started since the watchdog last looked
+	 * at the dispatcher
+	 */
+	protected boolean m_changed = false;
+	
+	/**
+	 * Whether the watchdog must stop
+	 */
+	protected boolean m_stop = false;
+	
+	/**
+	 * Creates a new watchdog
+	 * @param dispatcher The dispatcher whose experiments are watched
+	 */
+	public Watchdog(ThreadDispatcher dispatcher)
+	{
+		super();
+		m_dispatcher = dispatcher;
+	}
+	
+	/**
+	 * Tells the watchdog that an experiment has started, so that it
+	 * takes its deadline into account
+	 */
+	public synchronized void wakeUp()
+	{
+		m_changed = true;
+		notifyAll();
+	}
+	
+	/**
+	 * Tells the watchdog to stop
+	 */
+	public synchronized void stop()
+	{
+		m_stop = true;
+		notifyAll();
+	}
+	
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			// Don't hold our own monitor while the dispatcher's is taken
+			long next = m_dispatcher.killExpired();
+			synchronized (this)
+			{
+				if (m_stop)
+				{
+					return;
+				}
+				if (!m_changed)
+				{
+					try
+					{
+						if (next == Long.MAX_VALUE)
+						{
+							wait();
+						}
+						else
+						{
+							long remaining = next - System.nanoTime();
+							if (remaining > 0)
+							{
+								// Round up, so that we don't wake up too early
+								wait((remaining + 999999) / 1000000);
+							}
+						}
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+				m_changed = false;
+			}
+		}
+	}
+}
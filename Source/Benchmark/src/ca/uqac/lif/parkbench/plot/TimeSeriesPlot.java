@@ -0,0 +1,98 @@
+/*
+    ParkBench, a versatile benchmark environment
+    Copyright (C) 2015 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.parkbench.plot;
+
+import java.util.Map;
+import java.util.Vector;
+
+import ca.uqac.lif.parkbench.Experiment;
+import ca.uqac.lif.parkbench.MetricSampler;
+import ca.uqac.lif.parkbench.Parameters;
+import ca.uqac.lif.parkbench.TimeSeries;
+
+/**
+ * Overlays the time series of a metric sampled while experiments were
+ * running (see {@link MetricSampler}). The metric is chosen with
+ * {@link #setParameterY(String, String)}; the x-axis is the time since
+ * each experiment started, in seconds.
+ * 
+ * @author Sylvain Hallé
+ */
+public class TimeSeriesPlot extends PlanarPlot
+{
+	/**
+	 * Creates an empty time series plot with title
+	 * @param title The title
+	 */
+	public TimeSeriesPlot(String title)
+	{
+		super(title);
+		m_captionX = "Time (s)";
+	}
+	
+	@Override
+	public String toGnuPlot(Terminal term)
+	{
+		// One column per experiment that has the series
+		Vector<Parameters> columns = new Vector<Parameters>();
+		Vector<TimeSeries> series = new Vector<TimeSeries>();
+		for (Experiment t : m_tests)
+		{
+			TimeSeries s = t.getTimeSeries(m_paramNameY);
+			if (s == null || s.size() == 0)
+			{
+				continue;
+			}
+			Parameters params = new Parameters(t.getParameters());
+			params.removeAll(m_ignoredParameters);
+			// Put test's name into params
+			params.put("name", t.getName());
+			columns.add(params);
+			series.add(s);
+		}
+		// Create plot string
+		StringBuilder out = new StringBuilder();
+		out.append(super.createHeader(term));
+		if (columns.isEmpty())
+		{
+			// Gnuplot cannot plot nothing; show an empty frame instead
+			out.append("set xrange [0:1]\nset yrange [0:1]\nplot 2 notitle\n");
+			return out.toString();
+		}
+		out.append("plot ");
+		StringBuilder data_part = new StringBuilder();
+		Map<Parameters,String> legends = createLegends(columns);
+		for (int i = 0; i < columns.size(); i++)
+		{
+			if (i > 0)
+			{
+				out.append(", ");
+			}
+			out.append("\"-\" using 1:2 with lines title \"").append(legends.get(columns.get(i))).append("\"");
+			TimeSeries s = series.get(i);
+			for (int j = 0; j < s.size(); j++)
+			{
+				data_part.append(s.getTime(j) / 1000f).append(",").append(s.getValue(j)).append("\n");
+			}
+			data_part.append("end\n");
+		}
+		out.append("\n");
+		out.append(data_part);
+		return out.toString();
+	}
+}